@@ -0,0 +1,551 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan.ffm;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+import java.io.File;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Native access to Tiny-CAN DLL via the Foreign Function &amp; Memory API of
+ * Java 22 and above. Functions are called through downcall handles, the
+ * receive callback is an upcall stub. Pointer and structure parameters are
+ * passed as plain addresses of the JNA objects, so no JNA conversion takes
+ * place on a call.
+ * 
+ * @author gabriel
+ */
+public class ForeignNativeAccess implements NativeAccess
+{
+	private final Arena arena;
+
+	private final MethodHandle canInitDriver;
+	private final MethodHandle canDownDriver;
+	private final MethodHandle canExGetDeviceList;
+	private final MethodHandle canExDataFree;
+	private final MethodHandle canDeviceOpen;
+	private final MethodHandle canDeviceClose;
+	private final MethodHandle canGetDeviceStatus;
+	private final MethodHandle canReceive;
+	private final MethodHandle canReceiveGetCount;
+	private final MethodHandle canTransmit;
+	private final MethodHandle canTransmitGetCount;
+	private final MethodHandle canTransmitSet;
+	private final MethodHandle canSetSpeed;
+	private final MethodHandle canSetMode;
+	private final MethodHandle canSetRxEventCallback;
+	private final MethodHandle canSetEvents;
+
+	private final MemorySegment receiveCallbackStub;
+	private volatile NativeReceiveCallback receiveCallback;
+
+	/**
+	 * Loads the Tiny-CAN DLL. The DLL is searched in the directories of the
+	 * system property "jna.library.path" first, then in the system's library
+	 * search path.
+	 * 
+	 * @param libraryName
+	 *            references the name of the DLL without prefix and suffix.
+	 * @throws UnsatisfiedLinkError
+	 *             if the DLL or one of its functions can't be found.
+	 */
+	public ForeignNativeAccess(String libraryName)
+	{
+		this.arena = Arena.ofShared();
+		SymbolLookup lookup = lookupLibrary(libraryName, this.arena);
+		Linker linker = Linker.nativeLinker();
+
+		this.canInitDriver = downcall(linker, lookup, "CanInitDriver",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		this.canDownDriver = downcall(linker, lookup, "CanDownDriver",
+				FunctionDescriptor.ofVoid());
+		this.canExGetDeviceList = downcall(linker, lookup,
+				"CanExGetDeviceList",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+		this.canExDataFree = downcall(linker, lookup, "CanExDataFree",
+				FunctionDescriptor.ofVoid(ADDRESS));
+		this.canDeviceOpen = downcall(linker, lookup, "CanDeviceOpen",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS));
+		this.canDeviceClose = downcall(linker, lookup, "CanDeviceClose",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+		this.canGetDeviceStatus = downcall(linker, lookup,
+				"CanGetDeviceStatus",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS));
+		this.canReceive = downcall(linker, lookup, "CanReceive",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+		this.canReceiveGetCount = downcall(linker, lookup,
+				"CanReceiveGetCount",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+		this.canTransmit = downcall(linker, lookup, "CanTransmit",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+		this.canTransmitGetCount = downcall(linker, lookup,
+				"CanTransmitGetCount",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+		this.canTransmitSet = downcall(linker, lookup, "CanTransmitSet",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_SHORT, JAVA_INT));
+		this.canSetSpeed = downcall(linker, lookup, "CanSetSpeed",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_SHORT));
+		this.canSetMode = downcall(linker, lookup, "CanSetMode",
+				FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_BYTE,
+						JAVA_SHORT));
+		this.canSetRxEventCallback = downcall(linker, lookup,
+				"CanSetRxEventCallback", FunctionDescriptor.ofVoid(ADDRESS));
+		this.canSetEvents = downcall(linker, lookup, "CanSetEvents",
+				FunctionDescriptor.ofVoid(JAVA_SHORT));
+
+		// one upcall stub dispatching to the current receive callback
+		try
+		{
+			MethodHandle onReceive = MethodHandles
+					.lookup()
+					.findVirtual(
+							ForeignNativeAccess.class,
+							"onReceive",
+							MethodType.methodType(void.class, int.class,
+									MemorySegment.class, int.class))
+					.bindTo(this);
+			this.receiveCallbackStub = linker.upcallStub(onReceive,
+					FunctionDescriptor.ofVoid(JAVA_INT, ADDRESS, JAVA_INT),
+					this.arena);
+		} catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("Can't create receive callback!",
+					e);
+		}
+		this.receiveCallback = null;
+	}
+
+	private static SymbolLookup lookupLibrary(String libraryName, Arena arena)
+	{
+		String fileName = System.mapLibraryName(libraryName);
+		String jnaLibraryPath = System.getProperty("jna.library.path");
+		if (null != jnaLibraryPath)
+		{
+			for (String dir : jnaLibraryPath.split(File.pathSeparator))
+			{
+				File file = new File(dir, fileName);
+				if (file.isFile())
+				{
+					return SymbolLookup.libraryLookup(
+							Path.of(file.getAbsolutePath()), arena);
+				}
+			}
+		}
+		try
+		{
+			return SymbolLookup.libraryLookup(fileName, arena);
+		} catch (IllegalArgumentException e)
+		{
+			throw new UnsatisfiedLinkError("Can't find " + fileName + "!");
+		}
+	}
+
+	private static MethodHandle downcall(Linker linker, SymbolLookup lookup,
+			String name, FunctionDescriptor descriptor)
+	{
+		MemorySegment function = lookup.find(name).orElse(null);
+		if (null == function)
+		{
+			throw new UnsatisfiedLinkError("Can't find function " + name
+					+ " in Tiny-CAN DLL!");
+		}
+		return linker.downcallHandle(function, descriptor);
+	}
+
+	private static MemorySegment address(Pointer p)
+	{
+		return (null == p ? MemorySegment.NULL : MemorySegment.ofAddress(Pointer
+				.nativeValue(p)));
+	}
+
+	private static MemorySegment string(String s, Arena arena)
+	{
+		if (null == s)
+		{
+			return MemorySegment.NULL;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+		MemorySegment segment = arena.allocate(bytes.length + 1);
+		MemorySegment.copy(bytes, 0, segment, JAVA_BYTE, 0, bytes.length);
+		segment.set(JAVA_BYTE, bytes.length, (byte) 0);
+		return segment;
+	}
+
+	private static RuntimeException rethrow(Throwable t)
+	{
+		if (t instanceof RuntimeException)
+		{
+			return (RuntimeException) t;
+		} else if (t instanceof Error)
+		{
+			throw (Error) t;
+		}
+		return new IllegalStateException("Native call failed!", t);
+	}
+
+	private void onReceive(int index, MemorySegment msg, int count)
+	{
+		// nothing may escape an upcall, it would terminate the JVM
+		try
+		{
+			NativeReceiveCallback callback = this.receiveCallback;
+			if (null != callback)
+			{
+				callback.callback(index, (0 == msg.address() ? null
+						: new Pointer(msg.address())), count);
+			}
+		} catch (Throwable t)
+		{
+			try
+			{
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(
+						thread, t);
+			} catch (Throwable ignored)
+			{
+				// nowhere left to report to
+			}
+		}
+	}
+
+	@Override
+	public int CanInitDriver(String options)
+	{
+		try (Arena call = Arena.ofConfined())
+		{
+			return (int) this.canInitDriver.invokeExact(string(options, call));
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void CanDownDriver()
+	{
+		try
+		{
+			this.canDownDriver.invokeExact();
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		} finally
+		{
+			// unloads the DLL and frees the receive callback stub
+			this.arena.close();
+		}
+	}
+
+	@Override
+	public int CanExGetDeviceList(PointerByReference devicesList, int flags)
+	{
+		try
+		{
+			return (int) this.canExGetDeviceList.invokeExact(
+					address(devicesList.getPointer()), flags);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void CanExDataFree(PointerByReference data)
+	{
+		try
+		{
+			this.canExDataFree.invokeExact(address(data.getPointer()));
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanDeviceOpen(int index, String parameter)
+	{
+		try (Arena call = Arena.ofConfined())
+		{
+			return (int) this.canDeviceOpen.invokeExact(index,
+					string(parameter, call));
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanDeviceClose(int index)
+	{
+		try
+		{
+			return (int) this.canDeviceClose.invokeExact(index);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanGetDeviceStatus(int index, DeviceStatusByReference status)
+	{
+		int rc;
+		try
+		{
+			rc = (int) this.canGetDeviceStatus.invokeExact(index,
+					address(status.getPointer()));
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+		status.read();
+		return rc;
+	}
+
+	@Override
+	public int CanReceive(int index, CANMsg[] msg, int count)
+	{
+		try (Arena call = Arena.ofConfined())
+		{
+			MemorySegment frames = call.allocate((long) count
+					* CAN_MSG_SIZE);
+			int cnt = this.CanReceive(index, frames, count);
+			for (int i = 0; i < cnt; i++)
+			{
+				if (null == msg[i])
+				{
+					msg[i] = new CANMsg();
+				}
+				decode(frames, (long) i * CAN_MSG_SIZE, msg[i]);
+			}
+			return cnt;
+		}
+	}
+
+	@Override
+	public int CanReceive(int index, Pointer msg, int count)
+	{
+		return this.CanReceive(index, address(msg), count);
+	}
+
+	/**
+	 * Receives messages into a memory segment, e. g. an arena allocated
+	 * buffer.
+	 * 
+	 * @param index
+	 *            contains the index parameter of the channel.
+	 * @param msg
+	 *            references a buffer of at least count native CAN frames.
+	 * @param count
+	 *            contains the maximum number of messages to read.
+	 * @return the number of messages read or a negative error code.
+	 */
+	public int CanReceive(int index, MemorySegment msg, int count)
+	{
+		try
+		{
+			return (int) this.canReceive.invokeExact(index, msg, count);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanReceiveGetCount(int index)
+	{
+		try
+		{
+			return (int) this.canReceiveGetCount.invokeExact(index);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanTransmit(int index, CANMsg[] msg, int count)
+	{
+		try (Arena call = Arena.ofConfined())
+		{
+			MemorySegment frames = call.allocate((long) count
+					* CAN_MSG_SIZE);
+			for (int i = 0; i < count; i++)
+			{
+				encode(msg[i], frames, (long) i * CAN_MSG_SIZE);
+			}
+			return this.CanTransmit(index, frames, count);
+		}
+	}
+
+	@Override
+	public int CanTransmit(int index, Pointer msg, int count)
+	{
+		return this.CanTransmit(index, address(msg), count);
+	}
+
+	/**
+	 * Transmits messages from a memory segment, e. g. an arena allocated
+	 * buffer.
+	 * 
+	 * @param index
+	 *            contains the index parameter of the channel.
+	 * @param msg
+	 *            references a buffer of at least count native CAN frames.
+	 * @param count
+	 *            contains the number of messages to write.
+	 * @return the number of messages written or a negative error code.
+	 */
+	public int CanTransmit(int index, MemorySegment msg, int count)
+	{
+		try
+		{
+			return (int) this.canTransmit.invokeExact(index, msg, count);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanTransmitGetCount(int index)
+	{
+		try
+		{
+			return (int) this.canTransmitGetCount.invokeExact(index);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanTransmitSet(int index, short cmd, int time)
+	{
+		try
+		{
+			return (int) this.canTransmitSet.invokeExact(index, cmd, time);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanSetSpeed(int index, short speed)
+	{
+		try
+		{
+			return (int) this.canSetSpeed.invokeExact(index, speed);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int CanSetMode(int index, byte mode, short command)
+	{
+		try
+		{
+			return (int) this.canSetMode.invokeExact(index, mode, command);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void CanSetRxEventCallback(NativeReceiveCallback fn)
+	{
+		this.receiveCallback = fn;
+		try
+		{
+			this.canSetRxEventCallback
+					.invokeExact(null == fn ? MemorySegment.NULL
+							: this.receiveCallbackStub);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void CanSetEvents(short events)
+	{
+		try
+		{
+			this.canSetEvents.invokeExact(events);
+		} catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	private static void decode(MemorySegment frames, long offset, CANMsg msg)
+	{
+		msg.id = frames.get(JAVA_INT, offset + CAN_MSG_ID_OFFSET);
+		msg.flags = frames.get(JAVA_INT, offset + CAN_MSG_FLAGS_OFFSET);
+		MemorySegment.copy(frames, JAVA_BYTE, offset + CAN_MSG_DATA_OFFSET,
+				msg.data, 0, msg.data.length);
+		if (null == msg.time)
+		{
+			msg.time = new Time();
+		}
+		msg.time.sec = frames.get(JAVA_INT, offset + CAN_MSG_SEC_OFFSET);
+		msg.time.usec = frames.get(JAVA_INT, offset + CAN_MSG_USEC_OFFSET);
+	}
+
+	private static void encode(CANMsg msg, MemorySegment frames, long offset)
+	{
+		frames.set(JAVA_INT, offset + CAN_MSG_ID_OFFSET, msg.id);
+		frames.set(JAVA_INT, offset + CAN_MSG_FLAGS_OFFSET, msg.flags);
+		MemorySegment.copy(msg.data, 0, frames, JAVA_BYTE, offset
+				+ CAN_MSG_DATA_OFFSET, msg.data.length);
+		if (null != msg.time)
+		{
+			frames.set(JAVA_INT, offset + CAN_MSG_SEC_OFFSET, msg.time.sec);
+			frames.set(JAVA_INT, offset + CAN_MSG_USEC_OFFSET, msg.time.usec);
+		}
+	}
+}
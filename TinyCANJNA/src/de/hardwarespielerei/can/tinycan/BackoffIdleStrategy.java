@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Idle strategy which backs off in tiers: it spins first, then yields the
+ * processor and finally parks the thread for exponentially growing periods up
+ * to a maximum. Work resets the strategy to spinning, so bursts of messages are
+ * handled with low latency while an idle bus costs almost no CPU.
+ * 
+ * @author gabriel
+ */
+public class BackoffIdleStrategy extends IdleStrategy
+{
+	private enum State
+	{
+		Spinning, Yielding, Parking
+	}
+
+	private final long maxSpins;
+	private final long maxYields;
+	private final long minParkPeriodNanos;
+	private final long maxParkPeriodNanos;
+
+	private State state;
+	private long count;
+	private long parkPeriodNanos;
+
+	/**
+	 * Constructs a backoff strategy which spins 100 times, yields 10 times and
+	 * parks between 1 microsecond and 1 millisecond.
+	 */
+	public BackoffIdleStrategy()
+	{
+		this(100, 10, TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS
+				.toNanos(1));
+	}
+
+	/**
+	 * Constructs a backoff strategy.
+	 * 
+	 * @param maxSpins
+	 *            contains the number of spins before yielding.
+	 * @param maxYields
+	 *            contains the number of yields before parking.
+	 * @param minParkPeriodNanos
+	 *            contains the first park period in nanoseconds.
+	 * @param maxParkPeriodNanos
+	 *            contains the maximum park period in nanoseconds.
+	 * @throws IllegalArgumentException
+	 *             if a count is negative or the park periods are not positive
+	 *             or the minimum exceeds the maximum.
+	 */
+	public BackoffIdleStrategy(long maxSpins, long maxYields,
+			long minParkPeriodNanos, long maxParkPeriodNanos)
+	{
+		if (maxSpins < 0 || maxYields < 0 || minParkPeriodNanos < 1
+				|| maxParkPeriodNanos < minParkPeriodNanos)
+		{
+			throw new IllegalArgumentException("Invalid backoff " + maxSpins
+					+ " spins, " + maxYields + " yields, park period "
+					+ minParkPeriodNanos + " to " + maxParkPeriodNanos
+					+ " ns!");
+		}
+		this.maxSpins = maxSpins;
+		this.maxYields = maxYields;
+		this.minParkPeriodNanos = minParkPeriodNanos;
+		this.maxParkPeriodNanos = maxParkPeriodNanos;
+		this.reset();
+	}
+
+	@Override
+	public void idle()
+	{
+		// an exhausted tier moves on to the next one within the same call
+		if (State.Spinning == this.state)
+		{
+			if (this.count < this.maxSpins)
+			{
+				this.count++;
+				this.countSpin();
+				return;
+			}
+			this.state = State.Yielding;
+			this.count = 0;
+		}
+		if (State.Yielding == this.state)
+		{
+			if (this.count < this.maxYields)
+			{
+				this.count++;
+				this.countYield();
+				Thread.yield();
+				return;
+			}
+			this.state = State.Parking;
+			this.parkPeriodNanos = this.minParkPeriodNanos;
+		}
+		this.countPark();
+		LockSupport.parkNanos(this.parkPeriodNanos);
+		this.parkPeriodNanos = Math.min(this.parkPeriodNanos << 1,
+				this.maxParkPeriodNanos);
+	}
+
+	@Override
+	public void reset()
+	{
+		this.state = State.Spinning;
+		this.count = 0;
+		this.parkPeriodNanos = this.minParkPeriodNanos;
+	}
+}
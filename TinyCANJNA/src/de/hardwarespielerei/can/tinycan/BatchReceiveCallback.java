@@ -0,0 +1,46 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+/**
+ * Interface for batch receive call backs, which receive bursts of messages at
+ * once, e. g. to write them to a file with one call or to publish them under
+ * one lock.
+ * 
+ * @author gabriel
+ * @see Channel#setBatchReceiveCallBack(BatchReceiveCallback)
+ */
+public interface BatchReceiveCallback
+{
+	/**
+	 * Called for every burst of received messages.
+	 * 
+	 * @param msgs
+	 *            references the messages received. The array is reused after
+	 *            the call returns, the messages may be kept.
+	 * @param count
+	 *            contains the number of messages in the array, at least 1.
+	 */
+	void callback(CANMessage[] msgs, int count);
+}
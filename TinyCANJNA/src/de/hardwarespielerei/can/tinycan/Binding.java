@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import de.hardwarespielerei.can.tinycan.jna.DirectNativeAccess;
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Bindings available to call the Tiny-CAN DLL.
+ * 
+ * @author gabriel
+ * @see Library#load(String, Binding)
+ */
+public enum Binding
+{
+	/**
+	 * All functions are called through the JNA interface proxy
+	 * {@link NativeAccess}.
+	 */
+	InterfaceMapping,
+
+	/**
+	 * Receive, transmit and the corresponding count functions are called via
+	 * JNA direct mapping ({@link DirectNativeAccess}), all other functions
+	 * through the JNA interface proxy {@link NativeAccess}.
+	 */
+	DirectMapping,
+
+	/**
+	 * All functions are called via the Foreign Function &amp; Memory API using
+	 * downcall handles and an upcall stub for the receive callback. Requires
+	 * Java 22 or above.
+	 */
+	ForeignFunctions;
+}
@@ -39,4 +39,10 @@ public class BufferReadException extends TinyCANException
 	{
 		super(returnCode, message);
 	}
+
+	protected BufferReadException(int returnCode, String message,
+			boolean writableStackTrace)
+	{
+		super(returnCode, message, writableStackTrace);
+	}
 }
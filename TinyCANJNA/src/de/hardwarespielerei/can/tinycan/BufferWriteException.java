@@ -42,4 +42,10 @@ public class BufferWriteException extends TinyCANException
 	{
 		super(returnCode, message);
 	}
+
+	protected BufferWriteException(int returnCode, String message,
+			boolean writableStackTrace)
+	{
+		super(returnCode, message, writableStackTrace);
+	}
 }
@@ -24,10 +24,18 @@
 
 package de.hardwarespielerei.can.tinycan;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.jna.Memory;
 import com.sun.jna.Pointer;
 
 import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
-import de.hardwarespielerei.can.tinycan.jna.NativeAccess.CANMsg;
 import de.hardwarespielerei.can.tinycan.jna.NativeAccess.DeviceStatusByReference;
 import de.hardwarespielerei.can.tinycan.jna.NativeAccess.NativeReceiveCallback;
 
@@ -38,56 +46,174 @@ import de.hardwarespielerei.can.tinycan.jna.NativeAccess.NativeReceiveCallback;
  */
 public class Channel
 {
-	// private static final int MSG_SIZE = Native.getNativeSize(CANMsg.class);
-	// private static final byte[] DUMMY_BYTE = new byte[1];
-
 	private class ReceiveCallbackTranslator implements NativeReceiveCallback
 	{
+		private static final int DRAIN_BATCH_SIZE = 64;
+
 		private Channel channel;
 		private ReceiveCallback callback;
+		private BatchReceiveCallback batchCallback;
+		private CANMessage[] batch;
 
 		private ReceiveCallbackTranslator(Channel channel,
-				ReceiveCallback callback)
+				ReceiveCallback callback, BatchReceiveCallback batchCallback)
 		{
 			this.channel = channel;
 			this.callback = callback;
+			this.batchCallback = batchCallback;
+			this.batch = new CANMessage[DRAIN_BATCH_SIZE];
 		}
 
 		@Override
 		public void callback(int index, Pointer msg, int count)
 		{
-			// for (int i = 0; i < count; i++)
-			// {
-			// try
-			// {
-			// int[] content = msg.getIntArray(i * MSG_SIZE, MSG_SIZE / 4);
-			// byte length = (byte) (content[1] >> 28);
-			// byte[] data = msg.getByteArray(i * MSG_SIZE + 8, length);
-			// NativeMessage nativeMsg = new NativeMessage(content[0],
-			// false, false, length, data, content[4], content[5]);
-			// this.callback.callback(nativeMsg);
-			// } catch (Exception e)
-			// {
-			// // ignore, try to process next message...
-			// }
-			// }
-			int receiveCount = Library.call().CanReceiveGetCount(
-					this.channel.index.getIndex());
-			while (receiveCount > 0)
+			if (null == this.callback && null == this.batchCallback)
+			{
+				// nobody to pass messages to, only wake up blocking reads
+			} else if (null != msg && count > 0)
+			{
+				// decode the frames handed over by the driver in place
+				ByteBuffer frames = msg.getByteBuffer(0,
+						count * NativeAccess.CAN_MSG_SIZE).order(
+						ByteOrder.nativeOrder());
+				if (this.batch.length < count)
+				{
+					this.batch = new CANMessage[count];
+				}
+				boolean filtering = this.channel.isFiltering();
+				int accepted = 0;
+				for (int i = 0; i < count; i++)
+				{
+					int offset = i * NativeAccess.CAN_MSG_SIZE;
+					if (!filtering || this.channel.accepts(frames, offset))
+					{
+						this.batch[accepted++] = new NativeMessage(frames,
+								offset);
+					}
+				}
+				if (0 < accepted)
+				{
+					this.dispatch(accepted);
+				}
+			} else
+			{
+				// no frames handed over, drain the receive FIFO instead
+				try
+				{
+					int cnt = this.channel.read(this.batch, this.batch.length);
+					while (cnt > 0)
+					{
+						this.dispatch(cnt);
+						cnt = this.channel.read(this.batch, this.batch.length);
+					}
+				} catch (TinyCANException e)
+				{
+					// ignore, try again on next event...
+				}
+			}
+			this.channel.receiveSignal.signal();
+		}
+
+		private void dispatch(int count)
+		{
+			if (null != this.batchCallback)
+			{
+				try
+				{
+					this.batchCallback.callback(this.batch, count);
+				} catch (Exception e)
+				{
+					// ignore, try to process next burst...
+				}
+			} else
 			{
-				for (int i = 0; i < receiveCount; i++)
+				for (int i = 0; i < count; i++)
 				{
 					try
 					{
-						CANMessage nativeMsg = this.channel.read();
-						this.callback.callback(nativeMsg);
+						this.callback.callback(this.batch[i]);
 					} catch (Exception e)
 					{
 						// ignore, try to process next message...
 					}
 				}
-				receiveCount = Library.call().CanReceiveGetCount(
-						this.channel.index.getIndex());
+			}
+			Arrays.fill(this.batch, 0, count, null);
+		}
+	}
+
+	private class ReceiveLoop extends Thread
+	{
+		private static final int BATCH_SIZE = 64;
+
+		private ReceiveCallback callback;
+		private IdleStrategy idleStrategy;
+		private volatile boolean running;
+		private volatile TinyCANException failure;
+
+		private ReceiveLoop(ReceiveCallback callback, IdleStrategy idleStrategy)
+		{
+			super("Receive loop of " + Channel.this);
+			this.setDaemon(true);
+			this.callback = callback;
+			this.idleStrategy = idleStrategy;
+			this.running = true;
+			this.failure = null;
+		}
+
+		@Override
+		public void run()
+		{
+			while (this.running)
+			{
+				int cnt = 0;
+				try
+				{
+					cnt = Channel.this.readInPlace(this.callback, BATCH_SIZE);
+				} catch (TinyCANException e)
+				{
+					if (!e.isTransient())
+					{
+						// e. g. closed channel, polling again won't help
+						this.failure = e;
+						this.running = false;
+						break;
+					}
+				} catch (RuntimeException e)
+				{
+					// ignore errors of the callback, try again on next poll...
+				}
+				this.idleStrategy.idle(cnt);
+			}
+		}
+
+		private void terminate() throws InterruptedException
+		{
+			this.running = false;
+			LockSupport.unpark(this);
+			if (Thread.currentThread() != this)
+			{
+				this.join();
+			}
+		}
+
+		private void terminateUninterruptibly()
+		{
+			boolean interrupted = false;
+			while (true)
+			{
+				try
+				{
+					this.terminate();
+					break;
+				} catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
@@ -96,16 +222,65 @@ public class Channel
 	private Index index;
 
 	private NativeReceiveCallback nativeCallBack;
+	private ReceiveCallback receiveCallBack;
+	private BatchReceiveCallback batchReceiveCallBack;
+	private boolean receiveEventsRequired;
+	private final ReceiveSignal receiveSignal = new ReceiveSignal();
+
+	private final Object receiveLock = new Object();
+	private Memory receiveBuffer;
+	private ByteBuffer receiveFrames;
+	private NativeMessageView receiveView;
+	private volatile ReceivePool receivePool;
+	private ReceiveLoop receiveLoop;
+	private volatile ReceiveFilter receiveFilter;
+	private volatile FramePredicate receivePredicate;
+
+	/**
+	 * Native flags taken over when writing a message.
+	 */
+	protected static final int TRANSMIT_FLAGS = NativeAccess.CAN_MSG_FLAG_LENGTH_MASK
+			| NativeAccess.CAN_MSG_FLAG_RTR | NativeAccess.CAN_MSG_FLAG_EFF;
+
+	private final Object transmitLock = new Object();
+	private Memory transmitBuffer;
+	private ByteBuffer transmitFrames;
+	private volatile TransmitFlowControl transmitFlowControl;
+	private volatile TransmitQueue transmitQueue;
 
 	protected Channel(Adapter adapter, Bitrate bitrate) throws TinyCANException
 	{
 		this.nativeCallBack = null;
+		this.receiveCallBack = null;
+		this.batchReceiveCallBack = null;
+		this.receiveEventsRequired = false;
+		this.receiveBuffer = null;
+		this.receiveFrames = null;
+		this.receiveView = new NativeMessageView();
+		this.receivePool = null;
+		this.receiveLoop = null;
+		this.receiveFilter = null;
+		this.transmitBuffer = null;
+		this.transmitFrames = null;
+		this.transmitFlowControl = new TransmitFlowControl(
+				TransmitFlowControl.DEFAULT_LOW_WATER_MARK,
+				TransmitFlowControl.DEFAULT_HIGH_WATER_MARK);
+		this.transmitQueue = null;
+		this.receivePredicate = null;
 		this.adapter = adapter;
-		this.index = new Index(false, false, (byte) 0, (byte) 0, (short) 0);
-		TinyCANException.throwOnErrorCode(
-				Library.call().CanDeviceOpen(index.getIndex(),
-						"Snr=" + adapter.getSerialNumber()),
-				"Can't open channel to " + this.adapter + "!");
+		this.index = new Index(false, false, Library.openDevice(), (byte) 0,
+				(short) 0);
+		try
+		{
+			TinyCANException.throwOnErrorCode(
+					Library.call().CanDeviceOpen(index.getIndex(),
+							"Snr=" + adapter.getSerialNumber()),
+					"Can't open channel to " + this.adapter + "!");
+		} catch (TinyCANException e)
+		{
+			Library.closeDevice(this.index.getDevice());
+			throw e;
+		}
 		try
 		{
 			TinyCANException.throwOnErrorCode(
@@ -121,9 +296,15 @@ public class Channel
 					"Can't set mode on " + this.adapter + "!");
 		} catch (Exception e)
 		{
-			TinyCANException.throwOnErrorCode(
-					Library.call().CanDeviceClose(this.index.getIndex()),
-					"Can't close channel to " + this.adapter + "!");
+			try
+			{
+				TinyCANException.throwOnErrorCode(
+						Library.call().CanDeviceClose(this.index.getIndex()),
+						"Can't close channel to " + this.adapter + "!");
+			} finally
+			{
+				Library.closeDevice(this.index.getDevice());
+			}
 			throw e;
 		}
 	}
@@ -136,9 +317,33 @@ public class Channel
 	 */
 	public void close() throws TinyCANException
 	{
-		TinyCANException.throwOnErrorCode(
-				Library.call().CanDeviceClose(this.index.getIndex()),
-				"Can't close channel to " + this.adapter + "!");
+		ReceiveLoop loop;
+		synchronized (this)
+		{
+			loop = this.receiveLoop;
+			this.receiveLoop = null;
+		}
+		if (null != loop)
+		{
+			// before the device number may be handed out to another channel
+			loop.terminateUninterruptibly();
+		}
+		try
+		{
+			TinyCANException.throwOnErrorCode(
+					Library.call().CanDeviceClose(this.index.getIndex()),
+					"Can't close channel to " + this.adapter + "!");
+		} finally
+		{
+			TransmitQueue queue = this.transmitQueue;
+			if (null != queue)
+			{
+				queue.terminate();
+			}
+			Library.closeDevice(this.index.getDevice());
+			// wake up blocking reads, they will fail on the closed channel
+			this.receiveSignal.signal();
+		}
 	}
 
 	/**
@@ -163,6 +368,22 @@ public class Channel
 		return new Status(statusReference);
 	}
 
+	/**
+	 * @return the signal for receive events of this channel.
+	 */
+	protected ReceiveSignal getReceiveSignal()
+	{
+		return this.receiveSignal;
+	}
+
+	/**
+	 * @return the adapter of this channel.
+	 */
+	public Adapter getAdapter()
+	{
+		return this.adapter;
+	}
+
 	/**
 	 * @return the {@link Index} parameter of this channel.
 	 */
@@ -177,97 +398,1114 @@ public class Channel
 	 * @return next message.
 	 * @throws NoMessageException
 	 * @throws TinyCANException
+	 * @see #poll()
 	 */
 	public CANMessage read() throws TinyCANException
 	{
-		// message in receive buffer?
-		// int cnt = Library.call().CanReceiveGetCount(this.index.getIndex());
-		// if (cnt <= 0)
-		// {
-		// throw new NoMessageException(cnt,
-		// "No messages to read from adapter " + this.adapter + "!");
-		// }
-
-		// read from receive buffer
-		CANMsg[] buffer = new CANMsg[1];
-		int cnt = Library.call().CanReceive(this.index.getIndex(), buffer, 1);
-		if (0 == cnt)
+		CANMessage msg = this.poll();
+		if (null == msg)
 		{
-			throw new NoMessageException(cnt,
+			throw new NoMessageException(0,
 					"No messages to read from adapter " + this.adapter + "!");
-		} else if (0 > cnt)
+		}
+		return msg;
+	}
+
+	/**
+	 * Read message from this channel, waiting if necessary until a message
+	 * arrives or the timeout elapses. The calling thread is parked and woken up
+	 * by the receive event of the driver, so a message is returned as soon as
+	 * the event is delivered without polling. Receive events are enabled on the
+	 * first call. If a receive call back is set, it consumes the messages and
+	 * this method will only return messages it missed.
+	 * 
+	 * @param timeout
+	 *            contains the maximum time to wait, 0 to return immediately.
+	 * @param unit
+	 *            contains the unit of timeout.
+	 * @return next message or null if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @see #setReceiveCallBack(ReceiveCallback)
+	 */
+	public CANMessage read(long timeout, TimeUnit unit)
+			throws TinyCANException, InterruptedException
+	{
+		CANMessage[] buffer = new CANMessage[1];
+		return (0 == this.read(buffer, 1, timeout, unit) ? null : buffer[0]);
+	}
+
+	/**
+	 * Poll message from this channel. Unlike {@link #read()} no exception is
+	 * thrown if no message is waiting, so this method is suitable for tight
+	 * polling loops.
+	 * 
+	 * @return next message or null if no message is waiting.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	public CANMessage poll() throws TinyCANException
+	{
+		CANMessage[] buffer = new CANMessage[1];
+		return (0 == this.read(buffer, 1) ? null : buffer[0]);
+	}
+
+	/**
+	 * Read up to max messages from this channel using a single native call. The
+	 * messages are received into a contiguous native buffer which is owned by
+	 * this channel and reused by subsequent calls.
+	 * 
+	 * @param dst
+	 *            references the array to store the messages in.
+	 * @param max
+	 *            contains the maximum number of messages to read.
+	 * @return the number of messages read, 0 if no messages were waiting.
+	 * @throws IllegalArgumentException
+	 *             if max is less than 1 or exceeds the length of dst.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	public int read(CANMessage[] dst, int max) throws TinyCANException
+	{
+		if (max < 1 || max > dst.length)
 		{
-			TinyCANException.throwOnErrorCode(cnt,
-					"Can't read message from adapter " + this.adapter + "!");
+			throw new IllegalArgumentException("Can't read " + max
+					+ " messages into buffer of length " + dst.length + "!");
+		}
+		synchronized (this.receiveLock)
+		{
+			int cnt = this.receive(max);
+			for (int i = 0; i < cnt; i++)
+			{
+				dst[i] = new NativeMessage(this.receiveFrames, i
+						* NativeAccess.CAN_MSG_SIZE);
+			}
+			return cnt;
 		}
-		return new NativeMessage(buffer[0]);
 	}
 
 	/**
-	 * Set a receive call back. Set the callback to NULL to reset it. This
-	 * channel will keep a Java reference on the native callback object to avoid
-	 * it from being disposed.
+	 * Read up to max messages from this channel, waiting if necessary until at
+	 * least one message arrives or the timeout elapses. Waiting works like in
+	 * {@link #read(long, TimeUnit)}.
 	 * 
-	 * @param callBack
-	 *            references the callback to set or NULL to reset it.
+	 * @param dst
+	 *            references the array to store the messages in.
+	 * @param max
+	 *            contains the maximum number of messages to read.
+	 * @param timeout
+	 *            contains the maximum time to wait, 0 to return immediately.
+	 * @param unit
+	 *            contains the unit of timeout.
+	 * @return the number of messages read, 0 if the timeout elapsed.
+	 * @throws IllegalArgumentException
+	 *             if max is less than 1 or exceeds the length of dst.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
 	 */
-	public void setReceiveCallBack(ReceiveCallback callBack)
+	public int read(CANMessage[] dst, int max, long timeout, TimeUnit unit)
+			throws TinyCANException, InterruptedException
 	{
-		Library.call().CanSetEvents(EventMask.DisableReceiveMessages.getCode());
-		NativeReceiveCallback nextNativeCallBack = null;
-		if (null != callBack)
+		this.requireReceiveEvents();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true)
 		{
-			nextNativeCallBack = new ReceiveCallbackTranslator(this, callBack);
-			Library.call().CanSetRxEventCallback(nextNativeCallBack);
-			Library.call().CanSetEvents(
-					EventMask.EnableReceiveMessages.getCode());
+			// take the sequence first to not miss an event during the read
+			long sequence = this.receiveSignal.getSequence();
+			int cnt = this.read(dst, max);
+			long remaining = deadline - System.nanoTime();
+			if (0 != cnt || 0 >= remaining)
+			{
+				return cnt;
+			}
+			this.receiveSignal.await(sequence, remaining,
+					TimeUnit.NANOSECONDS);
 		}
-		this.nativeCallBack = nextNativeCallBack;
 	}
 
 	/**
-	 * Write message to this channel.
+	 * Read up to max messages from this channel using a single native call and
+	 * pass them to the callback without copying. The callback is called with a
+	 * {@link NativeMessageView} positioned over each frame in the receive
+	 * buffer of this channel, so frames the callback isn't interested in are
+	 * never decoded. The view is only valid during the callback, use
+	 * {@link NativeMessageView#copy()} to keep a frame. Exceptions thrown by
+	 * the callback are passed to the caller, the remaining frames of the batch
+	 * are lost then.
 	 * 
-	 * @param msg
-	 *            references the message structure.
+	 * @param callback
+	 *            references the callback to call for each message.
+	 * @param max
+	 *            contains the maximum number of messages to read.
+	 * @return the number of messages read, 0 if no messages were waiting.
+	 * @throws IllegalArgumentException
+	 *             if max is less than 1.
 	 * @throws TinyCANException
 	 *             on errors while accessing Tiny-CAN.
 	 */
-	public void write(CANMessage msg) throws TinyCANException
+	public int readInPlace(ReceiveCallback callback, int max)
+			throws TinyCANException
 	{
-		NativeMessage nativeMsg;
-		if (msg instanceof NativeMessage)
+		if (max < 1)
 		{
-			nativeMsg = (NativeMessage) msg;
-		} else
+			throw new IllegalArgumentException("Can't read " + max
+					+ " messages!");
+		}
+		synchronized (this.receiveLock)
 		{
-			// long now = System.currentTimeMillis();
-			nativeMsg = new NativeMessage(msg.getId(), false, true,
-					msg.getLength(), msg.getData(),
-					// TODO: time required?
-					0, 0);
+			int cnt = this.receive(max);
+			for (int i = 0; i < cnt; i++)
+			{
+				callback.callback(this.receiveView.wrap(this.receiveFrames, i
+						* NativeAccess.CAN_MSG_SIZE));
+			}
+			return cnt;
 		}
-		CANMsg[] buffer = new CANMsg[1];
-		buffer[0] = nativeMsg.getNativeMessage();
-		int cnt = Library.call().CanTransmit(this.index.getIndex(), buffer, 1);
-		if (0 > cnt)
+	}
+
+	/**
+	 * Read up to max messages from this channel using a single native call and
+	 * append them to a frame buffer. The frames are copied from the receive
+	 * buffer of this channel into the frame buffer's columns without creating
+	 * any message objects. At most as many messages as the frame buffer can
+	 * still hold are read, so no message is taken from the adapter and lost.
+	 * 
+	 * @param dst
+	 *            references the frame buffer to append the messages to.
+	 * @param max
+	 *            contains the maximum number of messages to read.
+	 * @return the number of messages read, 0 if no messages were waiting.
+	 * @throws IllegalArgumentException
+	 *             if max is less than 1.
+	 * @throws IllegalStateException
+	 *             if the frame buffer is full, no message is read then.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	public int read(FrameBuffer dst, int max) throws TinyCANException
+	{
+		if (max < 1)
 		{
-			TinyCANException.throwOnErrorCode(cnt, "Can't write to adapter "
-					+ this.adapter + "!");
+			throw new IllegalArgumentException("Can't read " + max
+					+ " messages!");
 		}
-		// cnt = Library.call().CanTransmitGetCount(this.index.getIndex());
-		// TinyCANException.throwOnErrorCode(
-		// Library.call().CanTransmitSet(this.index.getIndex(), (short) 0,
-		// 0), "Can't transmit buffer to adapter " + this.adapter
-		// + "!");
+		int remaining = dst.remainingCapacity();
+		if (0 == remaining)
+		{
+			throw new IllegalStateException("Frame buffer is full!");
+		}
+		synchronized (this.receiveLock)
+		{
+			int cnt = this.receive(Math.min(max, remaining));
+			dst.add(this.receiveFrames, 0, cnt);
+			return cnt;
+		}
+	}
+
+	/**
+	 * Read up to max messages from this channel using a single native call.
+	 * 
+	 * @param max
+	 *            contains the maximum number of messages to read.
+	 * @return the messages read, an empty array if no messages were waiting.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @see #read(CANMessage[], int)
+	 */
+	public CANMessage[] readBatch(int max) throws TinyCANException
+	{
+		CANMessage[] buffer = new CANMessage[max];
+		int cnt = this.read(buffer, max);
+		return (cnt == max ? buffer : Arrays.copyOf(buffer, cnt));
+	}
+
+	/**
+	 * Read up to max messages from this channel, waiting if necessary until at
+	 * least one message arrives or the timeout elapses.
+	 * 
+	 * @param max
+	 *            contains the maximum number of messages to read.
+	 * @param timeout
+	 *            contains the maximum time to wait, 0 to return immediately.
+	 * @param unit
+	 *            contains the unit of timeout.
+	 * @return the messages read, an empty array if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @see #read(CANMessage[], int, long, TimeUnit)
+	 */
+	public CANMessage[] readBatch(int max, long timeout, TimeUnit unit)
+			throws TinyCANException, InterruptedException
+	{
+		CANMessage[] buffer = new CANMessage[max];
+		int cnt = this.read(buffer, max, timeout, unit);
+		return (cnt == max ? buffer : Arrays.copyOf(buffer, cnt));
+	}
+
+	/**
+	 * Enables or disables the pooled receive mode. In pooled receive mode
+	 * messages are received into native message slots which are preallocated
+	 * by this channel and reused after they have been released by the
+	 * consumer, so receiving doesn't allocate any memory.
+	 * 
+	 * @param size
+	 *            contains the number of message slots, 0 to disable the pooled
+	 *            receive mode. Messages of a previous pool stay valid until
+	 *            they are released.
+	 * @throws IllegalArgumentException
+	 *             if size is negative.
+	 * @see #readPooled()
+	 */
+	public void setReceivePoolSize(int size)
+	{
+		if (size < 0)
+		{
+			throw new IllegalArgumentException("Invalid pool size " + size
+					+ "!");
+		}
+		this.receivePool = (0 == size ? null : new ReceivePool(size));
+	}
+
+	/**
+	 * @return the number of message slots of the pooled receive mode, 0 if it
+	 *         is disabled.
+	 */
+	public int getReceivePoolSize()
+	{
+		ReceivePool pool = this.receivePool;
+		return (null == pool ? 0 : pool.getSize());
+	}
+
+	/**
+	 * Read message from this channel into a pooled message slot. The message
+	 * has to be released by calling {@link PooledMessage#release()} when done.
+	 * 
+	 * @return next message.
+	 * @throws IllegalStateException
+	 *             if the pooled receive mode is disabled or all message slots
+	 *             are in use.
+	 * @throws NoMessageException
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @see #setReceivePoolSize(int)
+	 * @see #pollPooled()
+	 */
+	public PooledMessage readPooled() throws TinyCANException
+	{
+		PooledMessage msg = this.pollPooled();
+		if (null == msg)
+		{
+			throw new NoMessageException(0,
+					"No messages to read from adapter " + this.adapter + "!");
+		}
+		return msg;
+	}
+
+	/**
+	 * Poll message from this channel into a pooled message slot. Unlike
+	 * {@link #readPooled()} no exception is thrown if no message is waiting.
+	 * The message has to be released by calling {@link PooledMessage#release()}
+	 * when done.
+	 * 
+	 * @return next message or null if no message is waiting.
+	 * @throws IllegalStateException
+	 *             if the pooled receive mode is disabled or all message slots
+	 *             are in use.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @see #setReceivePoolSize(int)
+	 */
+	public PooledMessage pollPooled() throws TinyCANException
+	{
+		ReceivePool pool = this.receivePool;
+		if (null == pool)
+		{
+			throw new IllegalStateException(
+					"Pooled receive mode is disabled on " + this + "!");
+		}
+		PooledMessage msg = pool.acquire();
+		if (null == msg)
+		{
+			throw new IllegalStateException("All " + pool.getSize()
+					+ " pooled messages of " + this + " are in use!");
+		}
+		int cnt;
+		try
+		{
+			do
+			{
+				cnt = Library.receive(this.index.getIndex(), msg.getFrame(), 1);
+			} while (1 == cnt && this.isFiltering()
+					&& !this.accepts(msg.getFrames(), msg.getOffset()));
+		} catch (RuntimeException e)
+		{
+			msg.release();
+			throw e;
+		}
+		if (1 != cnt)
+		{
+			msg.release();
+			if (0 == cnt)
+			{
+				return null;
+			}
+			TinyCANException.throwOnHotPathErrorCode(cnt,
+					"Can't read message from adapter " + this.adapter + "!");
+		}
+		return msg;
+	}
+
+	/**
+	 * Receives up to max frames into the receive buffer of this channel, which
+	 * is grown if necessary. Frames rejected by the receive filter or predicate
+	 * are removed from the buffer. The caller has to hold the receive lock.
+	 * 
+	 * @param max
+	 *            contains the maximum number of frames to receive.
+	 * @return the number of frames received and accepted.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	private int receive(int max) throws TinyCANException
+	{
+		if (null == this.receiveBuffer
+				|| this.receiveBuffer.size() < (long) max
+						* NativeAccess.CAN_MSG_SIZE)
+		{
+			this.receiveBuffer = new Memory((long) max
+					* NativeAccess.CAN_MSG_SIZE);
+			this.receiveFrames = this.receiveBuffer.getByteBuffer(0,
+					this.receiveBuffer.size()).order(ByteOrder.nativeOrder());
+		}
+		int cnt;
+		int accepted;
+		do
+		{
+			cnt = Library.receive(this.index.getIndex(), this.receiveBuffer,
+					max);
+			if (0 > cnt)
+			{
+				TinyCANException.throwOnHotPathErrorCode(cnt,
+						"Can't read messages from adapter " + this.adapter
+								+ "!");
+			}
+			accepted = this.filter(cnt);
+			// a full buffer of rejected frames, more may be waiting
+		} while (0 == accepted && max == cnt);
+		return accepted;
+	}
+
+	/**
+	 * Removes the frames rejected by the receive filter or predicate from the
+	 * receive buffer by moving the accepted frames to the front.
+	 * 
+	 * @param count
+	 *            contains the number of frames in the receive buffer.
+	 * @return the number of accepted frames.
+	 */
+	private int filter(int count)
+	{
+		if (!this.isFiltering())
+		{
+			return count;
+		}
+		ByteBuffer frames = this.receiveFrames;
+		int accepted = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int offset = i * NativeAccess.CAN_MSG_SIZE;
+			if (this.accepts(frames, offset))
+			{
+				if (accepted != i)
+				{
+					int target = accepted * NativeAccess.CAN_MSG_SIZE;
+					for (int j = 0; j < NativeAccess.CAN_MSG_SIZE; j += 8)
+					{
+						frames.putLong(target + j, frames.getLong(offset + j));
+					}
+				}
+				accepted++;
+			}
+		}
+		return accepted;
+	}
+
+	private boolean isFiltering()
+	{
+		return null != this.receiveFilter || null != this.receivePredicate;
+	}
+
+	/**
+	 * @param frames
+	 *            references a buffer of native frames in native byte order.
+	 * @param offset
+	 *            contains the offset of the frame within the buffer.
+	 * @return true if the frame passes the receive filter and predicate.
+	 */
+	private boolean accepts(ByteBuffer frames, int offset)
+	{
+		ReceiveFilter filter = this.receiveFilter;
+		if (null != filter && !filter.accepts(frames, offset))
+		{
+			return false;
+		}
+		FramePredicate predicate = this.receivePredicate;
+		if (null == predicate)
+		{
+			return true;
+		}
+		int flags = frames.getInt(offset + NativeAccess.CAN_MSG_FLAGS_OFFSET);
+		return predicate.test(
+				frames.getInt(offset + NativeAccess.CAN_MSG_ID_OFFSET), flags,
+				Messages.maskPayload(Messages.payloadAt(frames, offset), flags));
+	}
+
+	/**
+	 * Set a software receive filter. Frames rejected by the filter are
+	 * dropped on all receive paths of this channel, including receive call
+	 * backs, before any message object is created for them.
+	 * 
+	 * @param filter
+	 *            references the filter or null to accept all messages.
+	 */
+	public void setReceiveFilter(ReceiveFilter filter)
+	{
+		this.receiveFilter = filter;
+	}
+
+	/**
+	 * @return the software receive filter or null if all messages are
+	 *         accepted.
+	 */
+	public ReceiveFilter getReceiveFilter()
+	{
+		return this.receiveFilter;
+	}
+
+	/**
+	 * Set a receive predicate, e. g. a compiled filter expression. Like the
+	 * receive filter, frames not matching the predicate are dropped on all
+	 * receive paths of this channel before any message object is created for
+	 * them. Frames have to pass both the receive filter and the predicate.
+	 * 
+	 * @param predicate
+	 *            references the predicate or null to accept all messages.
+	 * @see de.hardwarespielerei.can.tinycan.util.FilterExpression
+	 */
+	public void setReceivePredicate(FramePredicate predicate)
+	{
+		this.receivePredicate = predicate;
+	}
+
+	/**
+	 * @return the receive predicate or null if all messages are accepted.
+	 */
+	public FramePredicate getReceivePredicate()
+	{
+		return this.receivePredicate;
+	}
+
+	/**
+	 * Set a receive call back. Set the callback to NULL to reset it. The
+	 * callback only receives messages of this channel, each channel can have
+	 * its own callback. Once blocking reads have been used on this
+	 * channel, receive events stay enabled after resetting the callback.
+	 * 
+	 * @param callBack
+	 *            references the callback to set or NULL to reset it.
+	 */
+	public void setReceiveCallBack(ReceiveCallback callBack)
+	{
+		this.setReceiveCallBacks(callBack, null);
+	}
+
+	/**
+	 * Set a batch receive call back, which is called once for every burst of
+	 * messages the driver reports instead of once for every message. Set the
+	 * callback to NULL to reset it. A batch receive call back replaces a
+	 * receive call back and vice versa.
+	 * 
+	 * @param callBack
+	 *            references the callback to set or NULL to reset it.
+	 * @see #setReceiveCallBack(ReceiveCallback)
+	 */
+	public void setBatchReceiveCallBack(BatchReceiveCallback callBack)
+	{
+		this.setReceiveCallBacks(null, callBack);
+	}
+
+	private synchronized void setReceiveCallBacks(ReceiveCallback callBack,
+			BatchReceiveCallback batchCallBack)
+	{
+		NativeReceiveCallback nextNativeCallBack = null;
+		if (null != callBack || null != batchCallBack
+				|| this.receiveEventsRequired)
+		{
+			nextNativeCallBack = new ReceiveCallbackTranslator(this, callBack,
+					batchCallBack);
+		}
+		Library.setReceiveHandler(this.index.getDevice(), nextNativeCallBack);
+		this.nativeCallBack = nextNativeCallBack;
+		this.receiveCallBack = callBack;
+		this.batchReceiveCallBack = batchCallBack;
+	}
+
+	/**
+	 * Enables receive events for blocking reads, keeping a receive call back
+	 * which has been set.
+	 */
+	protected synchronized void requireReceiveEvents()
+	{
+		if (!this.receiveEventsRequired)
+		{
+			this.receiveEventsRequired = true;
+			this.setReceiveCallBacks(this.receiveCallBack,
+					this.batchReceiveCallBack);
+		}
+	}
+
+	/**
+	 * Start a receive loop on a thread owned by this channel. The loop polls
+	 * this channel and passes the messages to the callback like
+	 * {@link #readInPlace(ReceiveCallback, int)}, so a message is only valid
+	 * during the callback. Between polls which didn't return any messages the
+	 * idle strategy decides whether to spin, yield or park, trading CPU for
+	 * latency. Exceptions thrown by the callback and temporary FIFO errors are
+	 * ignored by the loop; other errors, e. g. after the channel has been
+	 * closed, stop the loop, see {@link #getReceiveLoopFailure()}.
+	 * 
+	 * @param callback
+	 *            references the callback to call for each message.
+	 * @param idleStrategy
+	 *            references the idle strategy which must not be shared with
+	 *            other threads.
+	 * @throws IllegalStateException
+	 *             if a receive loop is already running.
+	 * @see BackoffIdleStrategy
+	 */
+	public synchronized void startReceiveLoop(ReceiveCallback callback,
+			IdleStrategy idleStrategy)
+	{
+		if (this.isReceiveLoopRunning())
+		{
+			throw new IllegalStateException("Receive loop of " + this
+					+ " is already running!");
+		}
+		this.receiveLoop = new ReceiveLoop(callback, idleStrategy);
+		this.receiveLoop.start();
+	}
+
+	/**
+	 * Stop the receive loop and wait for its thread to terminate. Does nothing
+	 * if no receive loop is running. The monitor of this channel isn't held
+	 * while waiting, so the callback of the loop may call this channel.
+	 * 
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting, the
+	 *             loop stops nevertheless.
+	 */
+	public void stopReceiveLoop() throws InterruptedException
+	{
+		ReceiveLoop loop;
+		synchronized (this)
+		{
+			loop = this.receiveLoop;
+			this.receiveLoop = null;
+		}
+		if (null != loop)
+		{
+			loop.terminate();
+		}
+	}
+
+	/**
+	 * @return true if a receive loop is running, false otherwise.
+	 */
+	public synchronized boolean isReceiveLoopRunning()
+	{
+		return null != this.receiveLoop && this.receiveLoop.running;
+	}
+
+	/**
+	 * @return the error which stopped the receive loop, null if the loop is
+	 *         running or has been stopped by {@link #stopReceiveLoop()}.
+	 */
+	public synchronized TinyCANException getReceiveLoopFailure()
+	{
+		return null == this.receiveLoop ? null : this.receiveLoop.failure;
+	}
+
+	/**
+	 * Write message to this channel.
+	 * 
+	 * @param msg
+	 *            references the message structure.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	public void write(CANMessage msg) throws TinyCANException
+	{
+		// encoded like a batch, so both put the same frame on the bus
+		synchronized (this.transmitLock)
+		{
+			this.ensureTransmitCapacity(1);
+			this.marshal(0, msg);
+			this.transmit(1);
+		}
+		// cnt = Library.call().CanTransmitGetCount(this.index.getIndex());
+		// TinyCANException.throwOnErrorCode(
+		// Library.call().CanTransmitSet(this.index.getIndex(), (short) 0,
+		// 0), "Can't transmit buffer to adapter " + this.adapter
+		// + "!");
+	}
+
+	/**
+	 * Writes several messages to this channel with a single native call. The
+	 * messages are marshalled into one reusable native frame array, so writing
+	 * doesn't allocate any memory once the array is large enough.
+	 * 
+	 * @param msgs
+	 *            references the messages.
+	 * @param off
+	 *            contains the index of the first message to write.
+	 * @param len
+	 *            contains the number of messages to write.
+	 * @return the number of messages accepted by the driver's transmit FIFO,
+	 *         may be less than len if the FIFO is full.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws IllegalArgumentException
+	 *             if off or len exceed the bounds of msgs.
+	 */
+	public int write(CANMessage[] msgs, int off, int len)
+			throws TinyCANException
+	{
+		if (0 > off || 0 > len || off > msgs.length - len)
+		{
+			throw new IllegalArgumentException("Invalid range " + off + "+"
+					+ len + " of " + msgs.length + " messages!");
+		}
+		if (0 == len)
+		{
+			return 0;
+		}
+		synchronized (this.transmitLock)
+		{
+			this.ensureTransmitCapacity(len);
+			for (int i = 0; i < len; i++)
+			{
+				this.marshal(i, msgs[off + i]);
+			}
+			return this.transmit(len);
+		}
+	}
+
+	/**
+	 * Writes several messages to this channel with a single native call.
+	 * 
+	 * @param msgs
+	 *            references the messages.
+	 * @return the number of messages accepted by the driver's transmit FIFO,
+	 *         may be less than the number of messages if the FIFO is full.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @see #write(CANMessage[], int, int)
+	 */
+	public int write(Collection<? extends CANMessage> msgs)
+			throws TinyCANException
+	{
+		synchronized (this.transmitLock)
+		{
+			int len = msgs.size();
+			if (0 == len)
+			{
+				return 0;
+			}
+			this.ensureTransmitCapacity(len);
+			int i = 0;
+			for (CANMessage msg : msgs)
+			{
+				if (i == len)
+				{
+					// grown concurrently, the rest is left to the caller
+					break;
+				}
+				this.marshal(i++, msg);
+			}
+			return this.transmit(i);
+		}
+	}
+
+	/**
+	 * Writes a message to this channel under the transmit flow control of this
+	 * channel. Blocks while the driver's transmit FIFO is filled up to the high
+	 * water mark until it has drained to the low water mark, so the message
+	 * isn't rejected because the FIFO is full.
+	 * 
+	 * @param msg
+	 *            references the message.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, the message hasn't been
+	 *             written then.
+	 * @see #setTransmitFlowControl(int, int)
+	 */
+	public void writeFlowControlled(CANMessage msg) throws TinyCANException,
+			InterruptedException
+	{
+		TransmitFlowControl flowControl = this.transmitFlowControl;
+		int accepted;
+		do
+		{
+			// wait without the transmit lock, other writers go on meanwhile
+			flowControl.acquire(this.index.getIndex(), 1);
+			synchronized (this.transmitLock)
+			{
+				this.ensureTransmitCapacity(1);
+				this.marshal(0, msg);
+				accepted = this.transmitOrReject(1);
+			}
+			flowControl.written(1, accepted);
+		} while (0 == accepted);
+	}
+
+	/**
+	 * Writes messages to this channel under the transmit flow control of this
+	 * channel. Blocks while the driver's transmit FIFO is filled up to the high
+	 * water mark until it has drained to the low water mark, so all messages
+	 * are written without being rejected because the FIFO is full. The
+	 * messages are passed to the driver in as few calls as the FIFO level
+	 * permits.
+	 * 
+	 * @param msgs
+	 *            references the messages.
+	 * @param off
+	 *            contains the index of the first message to write.
+	 * @param len
+	 *            contains the number of messages to write.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, only some messages may have
+	 *             been written then.
+	 * @throws IllegalArgumentException
+	 *             if off or len exceed the bounds of msgs.
+	 * @see #setTransmitFlowControl(int, int)
+	 */
+	public void writeFlowControlled(CANMessage[] msgs, int off, int len)
+			throws TinyCANException, InterruptedException
+	{
+		if (0 > off || 0 > len || off > msgs.length - len)
+		{
+			throw new IllegalArgumentException("Invalid range " + off + "+"
+					+ len + " of " + msgs.length + " messages!");
+		}
+		while (len > 0)
+		{
+			int accepted = this.writeAvailable(msgs, off, len);
+			off += accepted;
+			len -= accepted;
+		}
+	}
+
+	/**
+	 * Writes as many messages as the transmit flow control of this channel
+	 * permits, blocking while the driver's transmit FIFO is filled up to the
+	 * high water mark.
+	 * 
+	 * @param msgs
+	 *            references the messages.
+	 * @param off
+	 *            contains the index of the first message to write.
+	 * @param len
+	 *            contains the number of messages to write, at least 1.
+	 * @return the number of messages written, may be 0 if the driver rejected
+	 *         them.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	protected int writeAvailable(CANMessage[] msgs, int off, int len)
+			throws TinyCANException, InterruptedException
+	{
+		TransmitFlowControl flowControl = this.transmitFlowControl;
+		// wait without the transmit lock, other writers go on meanwhile
+		int count = flowControl.acquire(this.index.getIndex(), len);
+		int accepted;
+		synchronized (this.transmitLock)
+		{
+			this.ensureTransmitCapacity(count);
+			for (int i = 0; i < count; i++)
+			{
+				this.marshal(i, msgs[off + i]);
+			}
+			accepted = this.transmitOrReject(count);
+		}
+		flowControl.written(count, accepted);
+		return accepted;
+	}
+
+	/**
+	 * Sets the water marks of the transmit flow control of this channel. The
+	 * default water marks are {@value TransmitFlowControl#DEFAULT_LOW_WATER_MARK}
+	 * and {@value TransmitFlowControl#DEFAULT_HIGH_WATER_MARK} frames.
+	 * 
+	 * @param lowWaterMark
+	 *            contains the fill level of the driver's transmit FIFO writers
+	 *            resume at.
+	 * @param highWaterMark
+	 *            contains the fill level of the driver's transmit FIFO writers
+	 *            are held back at, has to be below the FIFO size.
+	 * @throws IllegalArgumentException
+	 *             if the low water mark is negative or not below the high
+	 *             water mark.
+	 */
+	public void setTransmitFlowControl(int lowWaterMark, int highWaterMark)
+	{
+		this.transmitFlowControl = new TransmitFlowControl(lowWaterMark,
+				highWaterMark);
+	}
+
+	/**
+	 * @return the transmit flow control of this channel.
+	 */
+	public TransmitFlowControl getTransmitFlowControl()
+	{
+		return this.transmitFlowControl;
+	}
+
+	/**
+	 * Queues a message for asynchronous transmission, see
+	 * {@link TransmitQueue}. Starts the transmit queue with completion on
+	 * acceptance if it isn't running yet.
+	 * 
+	 * @param msg
+	 *            references the message.
+	 * @return a future completed once the message has been transmitted.
+	 * @see #startTransmitQueue(boolean)
+	 */
+	public CompletableFuture<CANMessage> writeAsync(CANMessage msg)
+	{
+		TransmitQueue queue = this.transmitQueue;
+		if (null == queue)
+		{
+			synchronized (this)
+			{
+				if (null == this.transmitQueue)
+				{
+					this.startTransmitQueue(false);
+				}
+				queue = this.transmitQueue;
+			}
+		}
+		return queue.submit(msg);
+	}
+
+	/**
+	 * Starts the asynchronous transmit queue of this channel. The queue writes
+	 * under the transmit flow control of this channel.
+	 * 
+	 * @param completeOnEcho
+	 *            is true to complete the futures on the echo of the
+	 *            transmitted frames, which have to be passed to the queue by
+	 *            a receive callback then, false to complete them as soon as
+	 *            the driver accepted the frames.
+	 * @return the transmit queue.
+	 * @throws IllegalStateException
+	 *             if the transmit queue is already running.
+	 * @see TransmitQueue#callback(CANMessage)
+	 */
+	public synchronized TransmitQueue startTransmitQueue(
+			boolean completeOnEcho)
+	{
+		if (null != this.transmitQueue)
+		{
+			throw new IllegalStateException("Transmit queue of " + this
+					+ " is already running!");
+		}
+		this.transmitQueue = new TransmitQueue(this, completeOnEcho);
+		return this.transmitQueue;
+	}
+
+	/**
+	 * Stops the asynchronous transmit queue of this channel and waits for it
+	 * to terminate. Messages not passed to the driver yet are discarded.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public synchronized void stopTransmitQueue() throws InterruptedException
+	{
+		if (null != this.transmitQueue)
+		{
+			this.transmitQueue.terminate();
+			this.transmitQueue.join();
+			this.transmitQueue = null;
+		}
+	}
+
+	/**
+	 * @return the asynchronous transmit queue or null if it isn't running.
+	 */
+	public TransmitQueue getTransmitQueue()
+	{
+		return this.transmitQueue;
+	}
+
+	/**
+	 * Writes packed frames to this channel with a single native call, without
+	 * creating message objects.
+	 * 
+	 * @param headers
+	 *            references the packed headers of the frames, see
+	 *            {@link CompactMessage#header(int, int)}.
+	 * @param payloads
+	 *            references the packed payloads of the frames.
+	 * @param len
+	 *            contains the number of frames to write.
+	 * @return the number of frames accepted by the driver's transmit FIFO.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	protected int write(long[] headers, long[] payloads, int len)
+			throws TinyCANException
+	{
+		if (0 == len)
+		{
+			return 0;
+		}
+		synchronized (this.transmitLock)
+		{
+			this.ensureTransmitCapacity(len);
+			for (int i = 0; i < len; i++)
+			{
+				this.marshal(i, (int) (headers[i] >>> 32), (int) headers[i],
+						payloads[i]);
+			}
+			return this.transmit(len);
+		}
+	}
+
+	/**
+	 * Grows the transmit buffer if required. The caller has to hold the
+	 * transmit lock.
+	 * 
+	 * @param max
+	 *            contains the number of frames the buffer has to hold.
+	 */
+	private void ensureTransmitCapacity(int max)
+	{
+		if (null == this.transmitBuffer
+				|| this.transmitBuffer.size() < (long) max
+						* NativeAccess.CAN_MSG_SIZE)
+		{
+			this.transmitBuffer = new Memory((long) max
+					* NativeAccess.CAN_MSG_SIZE);
+			this.transmitFrames = this.transmitBuffer.getByteBuffer(0,
+					this.transmitBuffer.size()).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * Stores a message into the transmit buffer. Only the length, RTR and EFF
+	 * flags are taken over, so received frames can be written again as they
+	 * are. The caller has to hold the transmit lock.
+	 * 
+	 * @param i
+	 *            contains the index of the frame within the buffer.
+	 * @param msg
+	 *            references the message.
+	 */
+	private void marshal(int i, CANMessage msg)
+	{
+		this.marshal(i, msg.getId(), Messages.flagsOf(msg),
+				Messages.payloadOf(msg));
+	}
+
+	/**
+	 * Stores a frame into the transmit buffer. Only the length, RTR and EFF
+	 * flags are taken over. The caller has to hold the transmit lock.
+	 * 
+	 * @param i
+	 *            contains the index of the frame within the buffer.
+	 * @param id
+	 *            contains the message ID.
+	 * @param flags
+	 *            contains the native flags.
+	 * @param payload
+	 *            contains the packed payload.
+	 */
+	private void marshal(int i, int id, int flags, long payload)
+	{
+		ByteBuffer frames = this.transmitFrames;
+		int offset = i * NativeAccess.CAN_MSG_SIZE;
+		frames.putInt(offset + NativeAccess.CAN_MSG_ID_OFFSET, id);
+		frames.putInt(offset + NativeAccess.CAN_MSG_FLAGS_OFFSET, flags
+				& TRANSMIT_FLAGS);
+		Messages.putPayloadAt(frames, offset, payload);
+		frames.putInt(offset + NativeAccess.CAN_MSG_SEC_OFFSET, 0);
+		frames.putInt(offset + NativeAccess.CAN_MSG_USEC_OFFSET, 0);
+	}
+
+	/**
+	 * Submits the first frames of the transmit buffer, a full transmit FIFO
+	 * isn't reported as an error. The caller has to hold the transmit lock.
+	 * 
+	 * @param count
+	 *            contains the number of frames to submit.
+	 * @return the number of frames accepted, 0 if the FIFO is full.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	private int transmitOrReject(int count) throws TinyCANException
+	{
+		try
+		{
+			return this.transmit(count);
+		} catch (FIFOWriteException e)
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * Submits the first frames of the transmit buffer. The caller has to hold
+	 * the transmit lock.
+	 * 
+	 * @param count
+	 *            contains the number of frames to submit.
+	 * @return the number of frames accepted.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	private int transmit(int count) throws TinyCANException
+	{
+		int cnt = Library.transmit(this.index.getIndex(), this.transmitBuffer,
+				count);
+		if (0 > cnt)
+		{
+			TinyCANException.throwOnHotPathErrorCode(cnt,
+					"Can't write to adapter " + this.adapter + "!");
+		}
+		return cnt;
 	}
 
 	/**
-	 * @return true if a receive call back was set, false otherwise.
+	 * @return true if a receive call back or a batch receive call back was set,
+	 *         false otherwise.
 	 */
-	public boolean isReceiveCallBackSet()
+	public synchronized boolean isReceiveCallBackSet()
 	{
-		return null != this.nativeCallBack;
+		return null != this.receiveCallBack
+				|| null != this.batchReceiveCallBack;
 	}
 
 	@Override
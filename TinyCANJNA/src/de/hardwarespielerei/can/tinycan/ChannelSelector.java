@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for messages on several channels, so a single thread can service many
+ * adapters. Similar to a NIO selector, channels are registered with the
+ * selector, then a thread waits in {@link #select(long, TimeUnit)} until at
+ * least one channel has messages waiting and reads the messages of the
+ * channels returned by {@link #selectedChannels()}:
+ * 
+ * <pre>
+ * ChannelSelector selector = new ChannelSelector();
+ * selector.register(channel1);
+ * selector.register(channel2);
+ * CANMessage[] buffer = new CANMessage[64];
+ * while (running)
+ * {
+ * 	if (selector.select(1, TimeUnit.SECONDS) &gt; 0)
+ * 	{
+ * 		for (Channel channel : selector.selectedChannels())
+ * 		{
+ * 			int cnt = channel.read(buffer, buffer.length);
+ * 			...
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ * 
+ * The waiting thread is woken up by the receive events of the registered
+ * channels and then checks the number of waiting messages of each channel.
+ * Channels with a receive call back are never selected, their call back
+ * consumes the messages.
+ * 
+ * @author gabriel
+ */
+public class ChannelSelector
+{
+	private final ReceiveSignal signal = new ReceiveSignal();
+	private final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<Channel>();
+	private volatile List<Channel> selected = Collections.emptyList();
+	private volatile boolean wokenUp = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * Registers a channel with this selector and enables receive events of the
+	 * channel.
+	 * 
+	 * @param channel
+	 *            references the channel to register.
+	 * @throws IllegalStateException
+	 *             if this selector is closed.
+	 */
+	public void register(Channel channel)
+	{
+		if (this.closed)
+		{
+			throw new IllegalStateException("Selector is closed!");
+		}
+		if (this.channels.addIfAbsent(channel))
+		{
+			channel.requireReceiveEvents();
+			channel.getReceiveSignal().chain(this.signal);
+			// messages may be waiting already
+			this.signal.signal();
+		}
+	}
+
+	/**
+	 * Removes a channel from this selector.
+	 * 
+	 * @param channel
+	 *            references the channel to remove.
+	 */
+	public void deregister(Channel channel)
+	{
+		if (this.channels.remove(channel))
+		{
+			channel.getReceiveSignal().unchain(this.signal);
+		}
+	}
+
+	/**
+	 * @return the channels registered with this selector.
+	 */
+	public List<Channel> getChannels()
+	{
+		return Collections.unmodifiableList(this.channels);
+	}
+
+	/**
+	 * Selects the channels with messages waiting without waiting.
+	 * 
+	 * @return the number of selected channels.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted.
+	 */
+	public int selectNow() throws InterruptedException
+	{
+		return this.select(0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Waits until at least one registered channel has messages waiting, the
+	 * timeout elapses or {@link #wakeup()} is called.
+	 * 
+	 * @param timeout
+	 *            contains the maximum time to wait, 0 to return immediately.
+	 * @param unit
+	 *            contains the unit of timeout.
+	 * @return the number of selected channels, 0 if the timeout elapsed or
+	 *         this selector has been woken up or closed.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @throws IllegalStateException
+	 *             if this selector is closed.
+	 * @see #selectedChannels()
+	 */
+	public int select(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		if (this.closed)
+		{
+			throw new IllegalStateException("Selector is closed!");
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true)
+		{
+			// take the sequence first to not miss an event during the check
+			long sequence = this.signal.getSequence();
+			List<Channel> ready = new ArrayList<Channel>();
+			for (Channel channel : this.channels)
+			{
+				// the call back consumes the messages of such a channel, errors
+				// are reported to the caller by reading the channel
+				if (!channel.isReceiveCallBackSet()
+						&& 0 != Library.receiveGetCount(channel.getIndex()
+								.getIndex()))
+				{
+					ready.add(channel);
+				}
+			}
+			this.selected = Collections.unmodifiableList(ready);
+			long remaining = deadline - System.nanoTime();
+			if (!ready.isEmpty() || this.wokenUp || 0 >= remaining)
+			{
+				this.wokenUp = false;
+				return ready.size();
+			}
+			this.signal.await(sequence, remaining, TimeUnit.NANOSECONDS);
+			if (this.closed)
+			{
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the channels with messages waiting found by the last select.
+	 */
+	public List<Channel> selectedChannels()
+	{
+		return this.selected;
+	}
+
+	/**
+	 * Makes the current or next select return immediately.
+	 */
+	public void wakeup()
+	{
+		this.wokenUp = true;
+		this.signal.signal();
+	}
+
+	/**
+	 * Closes this selector and removes all channels. A thread waiting in
+	 * select is woken up.
+	 */
+	public void close()
+	{
+		this.closed = true;
+		for (Channel channel : this.channels)
+		{
+			this.deregister(channel);
+		}
+		this.selected = Collections.emptyList();
+		this.signal.signal();
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Compact immutable CAN frame. The frame is packed into three longs: message
+ * ID and native flags (including the frame size), the eight data bytes and
+ * the timestamp. Use it to hold large numbers of frames in memory.
+ * 
+ * @author gabriel
+ */
+public final class CompactMessage implements CANMessage
+{
+	private final long header;
+	private final long payload;
+	private final long timestamp;
+
+	/**
+	 * Constructs a compact CAN frame from its packed representation.
+	 * 
+	 * @param header
+	 *            contains the message ID in the upper and the native flags in
+	 *            the lower 32 bits.
+	 * @param payload
+	 *            contains the data bytes, data byte i in bits 8 * i to 8 * i +
+	 *            7.
+	 * @param timestamp
+	 *            contains the seconds in the upper and the microseconds in the
+	 *            lower 32 bits.
+	 */
+	public CompactMessage(long header, long payload, long timestamp)
+	{
+		this.header = header;
+		this.payload = payload;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Constructs a compact CAN frame.
+	 * 
+	 * @param id
+	 *            contains the message ID.
+	 * @param isRemoteTransmitionRequest
+	 * @param isExtendedFrameFormat
+	 * @param length
+	 *            contains the frame size.
+	 * @param data
+	 *            contains data bytes.
+	 * @param seconds
+	 * @param useconds
+	 * @throws IllegalArgumentException
+	 *             if the data is more than 8 bytes long.
+	 */
+	public CompactMessage(int id, boolean isRemoteTransmitionRequest,
+			boolean isExtendedFrameFormat, byte length, byte data[],
+			int seconds, int useconds)
+	{
+		if (null != data && data.length > 8)
+		{
+			throw new IllegalArgumentException(
+					"Data is more than 8 bytes long!");
+		}
+		this.header = header(id,
+				(length & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK)
+						| (isRemoteTransmitionRequest ? NativeAccess.CAN_MSG_FLAG_RTR
+								: 0)
+						| (isExtendedFrameFormat ? NativeAccess.CAN_MSG_FLAG_EFF
+								: 0));
+		this.payload = Messages.payloadOf(data);
+		this.timestamp = timestamp(seconds, useconds);
+	}
+
+	/**
+	 * Converts a CAN frame into a compact CAN frame.
+	 * 
+	 * @param msg
+	 *            references the CAN frame.
+	 * @return the compact CAN frame, msg itself if it is compact already.
+	 */
+	public static CompactMessage of(CANMessage msg)
+	{
+		if (msg instanceof CompactMessage)
+		{
+			return (CompactMessage) msg;
+		}
+		long payload = (msg instanceof NativeMessageView ? ((NativeMessageView) msg)
+				.getPayload() : Messages.payloadOf(msg.getData()));
+		return new CompactMessage(header(msg.getId(), Messages.flagsOf(msg)),
+				payload, timestamp(msg.getSeconds(), msg.getMicroSeconds()));
+	}
+
+	/**
+	 * @param id
+	 *            contains the message ID.
+	 * @param flags
+	 *            contains the native flags.
+	 * @return the packed header.
+	 */
+	public static long header(int id, int flags)
+	{
+		return ((long) id << 32) | (flags & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param seconds
+	 *            contains the seconds of the timestamp.
+	 * @param useconds
+	 *            contains the microseconds of the timestamp.
+	 * @return the packed timestamp.
+	 */
+	public static long timestamp(int seconds, int useconds)
+	{
+		return ((long) seconds << 32) | (useconds & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return a native CAN frame with the content of this frame, e. g. to
+	 *         write it to a channel.
+	 */
+	public NativeMessage toNativeMessage()
+	{
+		return new NativeMessage(this.getId(), this.getFlags(), this.payload,
+				this.getSeconds(), this.getMicroSeconds());
+	}
+
+	/**
+	 * @return the message ID in the upper and the native flags in the lower 32
+	 *         bits.
+	 */
+	public long getHeader()
+	{
+		return this.header;
+	}
+
+	/**
+	 * @return the data bytes, data byte i in bits 8 * i to 8 * i + 7.
+	 */
+	public long getPayload()
+	{
+		return this.payload;
+	}
+
+	/**
+	 * @return the seconds in the upper and the microseconds in the lower 32
+	 *         bits.
+	 */
+	public long getTimestamp()
+	{
+		return this.timestamp;
+	}
+
+	/**
+	 * @return the native flags.
+	 */
+	protected int getFlags()
+	{
+		return (int) this.header;
+	}
+
+	@Override
+	public int getId()
+	{
+		return (int) (this.header >>> 32);
+	}
+
+	@Override
+	public byte getLength()
+	{
+		return (byte) (this.header & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK);
+	}
+
+	@Override
+	public boolean isTransmitted()
+	{
+		return (this.header & NativeAccess.CAN_MSG_FLAG_TXD) != 0;
+	}
+
+	@Override
+	public boolean isReserved()
+	{
+		return (this.header & NativeAccess.CAN_MSG_FLAG_RESERVED) != 0;
+	}
+
+	@Override
+	public boolean isRemoteTransmitionRequest()
+	{
+		return (this.header & NativeAccess.CAN_MSG_FLAG_RTR) != 0;
+	}
+
+	@Override
+	public boolean isExtendedFrameFormat()
+	{
+		return (this.header & NativeAccess.CAN_MSG_FLAG_EFF) != 0;
+	}
+
+	@Override
+	public byte getSource()
+	{
+		return (byte) (this.header >> NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT);
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the data byte, 0 to 7.
+	 * @return the data byte.
+	 */
+	public byte getData(int i)
+	{
+		if (i < 0 || i >= 8)
+		{
+			throw new IndexOutOfBoundsException("Invalid data byte " + i + "!");
+		}
+		return Messages.dataOf(this.payload, i);
+	}
+
+	/**
+	 * @return a copy of the data bytes.
+	 */
+	@Override
+	public byte[] getData()
+	{
+		return Messages.dataOf(this.payload);
+	}
+
+	@Override
+	public int getSeconds()
+	{
+		return (int) (this.timestamp >>> 32);
+	}
+
+	@Override
+	public int getMicroSeconds()
+	{
+		return (int) this.timestamp;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof CompactMessage))
+		{
+			return false;
+		}
+		CompactMessage other = (CompactMessage) obj;
+		return this.header == other.header && this.payload == other.payload
+				&& this.timestamp == other.timestamp;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		long hash = this.header * 31 + this.payload;
+		hash = hash * 31 + this.timestamp;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.toNativeMessage().toString();
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic message of a {@link CyclicTransmitScheduler}. The payload can be
+ * updated while the message is being sent, without scheduling it again.
+ * 
+ * @author gabriel
+ * @see CyclicTransmitScheduler#schedule(CANMessage, long, TimeUnit)
+ */
+public class CyclicMessage extends PeriodicMessage
+{
+	private final CyclicTransmitScheduler scheduler;
+	private int slot;
+	private PeriodicTransmission transmission;
+
+	/**
+	 * Constructs a periodic message.
+	 * 
+	 * @param scheduler
+	 *            references the scheduler sending the message.
+	 * @param header
+	 *            contains the packed header of the message.
+	 * @param payload
+	 *            contains the packed payload of the message.
+	 * @param periodNanos
+	 *            contains the period in nanoseconds.
+	 */
+	protected CyclicMessage(CyclicTransmitScheduler scheduler, long header,
+			long payload, long periodNanos)
+	{
+		super(header, payload, periodNanos);
+		this.scheduler = scheduler;
+		this.slot = 0;
+		this.transmission = null;
+	}
+
+	/**
+	 * Updates the payload sent from the next period on. The frame size isn't
+	 * changed.
+	 * 
+	 * @param payload
+	 *            contains the packed payload, data byte i in bits 8 * i to 8 *
+	 *            i + 7.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws IllegalStateException
+	 *             if the message has been cancelled.
+	 */
+	public void setPayload(long payload) throws TinyCANException
+	{
+		this.scheduler.update(this, payload);
+	}
+
+	/**
+	 * Updates the data bytes sent from the next period on. The frame size
+	 * isn't changed.
+	 * 
+	 * @param data
+	 *            contains up to eight data bytes.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws IllegalStateException
+	 *             if the message has been cancelled.
+	 */
+	public void setData(byte[] data) throws TinyCANException
+	{
+		this.setPayload(Messages.payloadOf(data));
+	}
+
+	/**
+	 * Stops sending the message.
+	 * 
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	public void cancel() throws TinyCANException
+	{
+		this.scheduler.cancel(this);
+	}
+
+	/**
+	 * @return true if the message is sent by a transmit buffer of the
+	 *         adapter, false if it is sent by the software scheduler.
+	 */
+	public boolean isHardwareScheduled()
+	{
+		synchronized (this.scheduler)
+		{
+			return 0 != this.slot;
+		}
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the mean jitter of the transmissions by the software scheduler,
+	 *         0 if the message is sent by a transmit buffer, which doesn't
+	 *         report it.
+	 */
+	public long getMeanJitter(TimeUnit unit)
+	{
+		synchronized (this.scheduler)
+		{
+			return (null == this.transmission ? 0 : this.transmission
+					.getMeanJitter(unit));
+		}
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the largest jitter of the transmissions by the software
+	 *         scheduler, 0 if the message is sent by a transmit buffer, which
+	 *         doesn't report it.
+	 */
+	public long getMaxJitter(TimeUnit unit)
+	{
+		synchronized (this.scheduler)
+		{
+			return (null == this.transmission ? 0 : this.transmission
+					.getMaxJitter(unit));
+		}
+	}
+
+	/**
+	 * @return the sub index of the transmit buffer sending the message, 0 if
+	 *         it is sent by the software scheduler. Guarded by the
+	 *         scheduler.
+	 */
+	protected int getSlot()
+	{
+		return this.slot;
+	}
+
+	protected void setSlot(int slot)
+	{
+		this.slot = slot;
+	}
+
+	/**
+	 * @return the transmission of the software scheduler sending the message,
+	 *         null if it isn't sent by the software scheduler. Guarded by the
+	 *         scheduler.
+	 */
+	protected PeriodicTransmission getTransmission()
+	{
+		return this.transmission;
+	}
+
+	protected void setTransmission(PeriodicTransmission transmission)
+	{
+		this.transmission = transmission;
+	}
+}
@@ -0,0 +1,486 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.jna.Memory;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Sends periodic messages on a {@link Channel}. As many messages as possible
+ * are placed into the transmit buffers of the adapter, which send them by
+ * their own interval timer without any jitter caused by the JVM or the
+ * operating system. The remaining messages are sent by a
+ * {@link TimingWheelTransmitScheduler}.
+ * 
+ * The transmit buffers are given to the messages with the shortest periods:
+ * scheduling a message with a shorter period than a buffered one moves the
+ * buffered message with the longest period to the software scheduler, and
+ * cancelling a buffered message moves the software scheduled message with the
+ * shortest period into the freed buffer.
+ * 
+ * If the adapter doesn't accept the transmit buffer commands, all messages
+ * are sent by the software scheduler.
+ * 
+ * The transmit buffer command bits haven't been verified against the driver
+ * yet. A wrong command may be accepted without error while the buffer never
+ * sends, so transmit buffers are only used if their number is passed to
+ * {@link #CyclicTransmitScheduler(Channel, int)} explicitly.
+ * 
+ * @author gabriel
+ * @see AdapterWithModuleFeatures#getHardwareTransmitPufferCount()
+ */
+public class CyclicTransmitScheduler
+{
+	private final Channel channel;
+	private final CyclicMessage[] buffers;
+	private final List<CyclicMessage> softwareMessages;
+	private final Memory frame;
+	private final ByteBuffer frames;
+	private boolean hardwareAvailable;
+	private TimingWheelTransmitScheduler wheel;
+	private boolean closed;
+
+	/**
+	 * Constructs a scheduler sending all messages by the software scheduler,
+	 * without transmit buffers of the adapter.
+	 * 
+	 * @param channel
+	 *            references the channel to send the messages on.
+	 */
+	public CyclicTransmitScheduler(Channel channel)
+	{
+		this(channel, 0);
+	}
+
+	/**
+	 * Constructs a scheduler.
+	 * 
+	 * @param channel
+	 *            references the channel to send the messages on.
+	 * @param hardwareBufferCount
+	 *            contains the number of transmit buffers of the adapter to
+	 *            use, e. g.
+	 *            {@link AdapterWithModuleFeatures#getHardwareTransmitPufferCount()}
+	 *            , 0 to use none.
+	 * @throws IllegalArgumentException
+	 *             if the number is negative.
+	 */
+	public CyclicTransmitScheduler(Channel channel, int hardwareBufferCount)
+	{
+		if (hardwareBufferCount < 0)
+		{
+			throw new IllegalArgumentException("Invalid buffer count "
+					+ hardwareBufferCount + "!");
+		}
+		this.channel = channel;
+		this.buffers = new CyclicMessage[hardwareBufferCount];
+		this.softwareMessages = new ArrayList<CyclicMessage>();
+		this.frame = new Memory(NativeAccess.CAN_MSG_SIZE);
+		this.frames = this.frame.getByteBuffer(0, NativeAccess.CAN_MSG_SIZE)
+				.order(ByteOrder.nativeOrder());
+		this.hardwareAvailable = hardwareBufferCount > 0;
+		this.wheel = null;
+		this.closed = false;
+	}
+
+	/**
+	 * Starts sending a message periodically, the first time right away.
+	 * 
+	 * @param msg
+	 *            references the message.
+	 * @param period
+	 *            contains the period.
+	 * @param unit
+	 *            references the unit of the period.
+	 * @return the periodic message, e. g. to update its payload or to cancel
+	 *         it.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws IllegalArgumentException
+	 *             if the period isn't positive.
+	 * @throws IllegalStateException
+	 *             if the scheduler has been closed.
+	 */
+	public synchronized CyclicMessage schedule(CANMessage msg, long period,
+			TimeUnit unit) throws TinyCANException
+	{
+		if (this.closed)
+		{
+			throw new IllegalStateException("Scheduler of " + this.channel
+					+ " has been closed!");
+		}
+		long periodNanos = unit.toNanos(period);
+		if (periodNanos <= 0)
+		{
+			throw new IllegalArgumentException("Invalid period " + period
+					+ " " + unit + "!");
+		}
+		CyclicMessage cyclic = new CyclicMessage(this,
+				CompactMessage.header(msg.getId(), Messages.flagsOf(msg)
+						& Channel.TRANSMIT_FLAGS), Messages.payloadOf(msg),
+				periodNanos);
+		int slot = 0;
+		if (this.fitsHardware(cyclic))
+		{
+			slot = this.freeSlot();
+			if (0 == slot)
+			{
+				CyclicMessage longest = null;
+				for (CyclicMessage buffered : this.buffers)
+				{
+					if (buffered.getPeriodNanos() > periodNanos
+							&& (null == longest || buffered.getPeriodNanos() > longest
+									.getPeriodNanos()))
+					{
+						longest = buffered;
+					}
+				}
+				if (null != longest)
+				{
+					// keeps longest in its buffer if it can't be stopped
+					slot = longest.getSlot();
+					this.stopHardware(longest);
+					this.startSoftware(longest);
+				}
+			}
+		}
+		if (0 == slot || !this.startHardware(cyclic, slot))
+		{
+			this.startSoftware(cyclic);
+		}
+		return cyclic;
+	}
+
+	/**
+	 * Updates the payload of a periodic message.
+	 * 
+	 * @param cyclic
+	 *            references the periodic message.
+	 * @param payload
+	 *            contains the new payload.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws IllegalStateException
+	 *             if the message has been cancelled.
+	 */
+	protected synchronized void update(CyclicMessage cyclic, long payload)
+			throws TinyCANException
+	{
+		if (cyclic.isCancelled())
+		{
+			throw new IllegalStateException(cyclic + " has been cancelled!");
+		}
+		cyclic.setPayloadValue(payload);
+		if (cyclic.isHardwareScheduled())
+		{
+			// replaces the frame, the interval timer keeps running
+			this.load(cyclic.getSlot(), cyclic);
+		} else
+		{
+			cyclic.getTransmission().setPayload(payload);
+		}
+	}
+
+	/**
+	 * Stops sending a periodic message. If it has been sent by a transmit
+	 * buffer, the software scheduled message with the shortest period takes
+	 * over the buffer.
+	 * 
+	 * @param cyclic
+	 *            references the periodic message.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	protected synchronized void cancel(CyclicMessage cyclic)
+			throws TinyCANException
+	{
+		if (cyclic.isCancelled())
+		{
+			return;
+		}
+		if (!cyclic.isHardwareScheduled())
+		{
+			cyclic.setCancelled();
+			this.stopSoftware(cyclic);
+			return;
+		}
+		int slot = cyclic.getSlot();
+		this.stopHardware(cyclic);
+		cyclic.setCancelled();
+		CyclicMessage shortest = null;
+		for (CyclicMessage scheduled : this.softwareMessages)
+		{
+			if (this.fitsHardware(scheduled)
+					&& (null == shortest || scheduled.getPeriodNanos() < shortest
+							.getPeriodNanos()))
+			{
+				shortest = scheduled;
+			}
+		}
+		if (null != shortest)
+		{
+			this.stopSoftware(shortest);
+			if (!this.startHardware(shortest, slot))
+			{
+				this.startSoftware(shortest);
+			}
+		}
+	}
+
+	/**
+	 * Stops sending all periodic messages and releases the software
+	 * scheduler.
+	 * 
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the software scheduler to
+	 *             terminate.
+	 */
+	public synchronized void close() throws TinyCANException,
+			InterruptedException
+	{
+		if (this.closed)
+		{
+			return;
+		}
+		this.closed = true;
+		try
+		{
+			for (CyclicMessage buffered : this.buffers)
+			{
+				if (null != buffered)
+				{
+					buffered.setCancelled();
+					this.stopHardware(buffered);
+				}
+			}
+		} finally
+		{
+			for (CyclicMessage scheduled : this.softwareMessages)
+			{
+				scheduled.setCancelled();
+			}
+			this.softwareMessages.clear();
+			if (null != this.wheel)
+			{
+				TimingWheelTransmitScheduler wheel = this.wheel;
+				this.wheel = null;
+				wheel.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of transmit buffers of the adapter this scheduler
+	 *         uses.
+	 */
+	public int getHardwareBufferCount()
+	{
+		return this.buffers.length;
+	}
+
+	/**
+	 * @return the number of messages sent by transmit buffers of the adapter.
+	 */
+	public synchronized int getHardwareScheduledCount()
+	{
+		int cnt = 0;
+		for (CyclicMessage buffered : this.buffers)
+		{
+			if (null != buffered)
+			{
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+
+	/**
+	 * @return the number of messages sent by the software scheduler.
+	 */
+	public synchronized int getSoftwareScheduledCount()
+	{
+		return this.softwareMessages.size();
+	}
+
+	/**
+	 * @param cyclic
+	 *            references a periodic message.
+	 * @return true if the message may be sent by a transmit buffer, false
+	 *         otherwise.
+	 */
+	private boolean fitsHardware(CyclicMessage cyclic)
+	{
+		long micros = cyclic.getPeriod(TimeUnit.MICROSECONDS);
+		return this.hardwareAvailable && micros > 0
+				&& micros <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return the sub index of a free transmit buffer or 0 if all are in use.
+	 */
+	private int freeSlot()
+	{
+		for (int i = 0; i < this.buffers.length; i++)
+		{
+			if (null == this.buffers[i])
+			{
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	private Index indexOf(int slot)
+	{
+		Index index = this.channel.getIndex();
+		return new Index(false, true, index.getDevice(), index.getChannel(),
+				(short) slot);
+	}
+
+	/**
+	 * Loads a message into a transmit buffer.
+	 * 
+	 * @param slot
+	 *            contains the sub index of the transmit buffer.
+	 * @param cyclic
+	 *            references the periodic message.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	private void load(int slot, CyclicMessage cyclic) throws TinyCANException
+	{
+		this.frames.putInt(NativeAccess.CAN_MSG_ID_OFFSET, cyclic.getId());
+		this.frames.putInt(NativeAccess.CAN_MSG_FLAGS_OFFSET,
+				(int) cyclic.getHeader());
+		Messages.putPayloadAt(this.frames, 0, cyclic.getPayload());
+		this.frames.putInt(NativeAccess.CAN_MSG_SEC_OFFSET, 0);
+		this.frames.putInt(NativeAccess.CAN_MSG_USEC_OFFSET, 0);
+		Index index = this.indexOf(slot);
+		int cnt = Library.transmit(index.getIndex(), this.frame, 1);
+		if (0 > cnt)
+		{
+			TinyCANException.throwOnErrorCode(cnt, "Can't load buffer "
+					+ index + " of " + this.channel + "!");
+		}
+	}
+
+	/**
+	 * Starts sending a message by a transmit buffer. If the adapter doesn't
+	 * support the buffer or the command, transmit buffers aren't used any
+	 * more. On other errors only this message is left to the software
+	 * scheduler.
+	 * 
+	 * @param cyclic
+	 *            references the periodic message.
+	 * @param slot
+	 *            contains the sub index of the transmit buffer.
+	 * @return true if the message is sent by the transmit buffer, false
+	 *         otherwise.
+	 */
+	private boolean startHardware(CyclicMessage cyclic, int slot)
+	{
+		Index index = this.indexOf(slot);
+		try
+		{
+			this.load(slot, cyclic);
+			TinyCANException.throwOnErrorCode(
+					Library.call().CanTransmitSet(
+							index.getIndex(),
+							(short) (NativeAccess.TX_CMD_SET_TIME | NativeAccess.TX_CMD_TIMER_ON),
+							(int) cyclic.getPeriod(TimeUnit.MICROSECONDS)),
+					"Can't start buffer " + index + " of " + this.channel
+							+ "!");
+		} catch (InvalidIndexException | InvalidParameterException e)
+		{
+			this.hardwareAvailable = false;
+			return false;
+		} catch (TinyCANException e)
+		{
+			return false;
+		}
+		cyclic.setSlot(slot);
+		this.buffers[slot - 1] = cyclic;
+		return true;
+	}
+
+	/**
+	 * Stops sending a message by its transmit buffer. If the buffer can't be
+	 * stopped, the message keeps it.
+	 * 
+	 * @param cyclic
+	 *            references the periodic message.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	private void stopHardware(CyclicMessage cyclic) throws TinyCANException
+	{
+		int slot = cyclic.getSlot();
+		Index index = this.indexOf(slot);
+		TinyCANException.throwOnErrorCode(
+				Library.call().CanTransmitSet(index.getIndex(),
+						NativeAccess.CAN_CMD_NONE, 0), "Can't stop buffer "
+						+ index + " of " + this.channel + "!");
+		this.buffers[slot - 1] = null;
+		cyclic.setSlot(0);
+	}
+
+	/**
+	 * Starts sending a message by the software scheduler.
+	 * 
+	 * @param cyclic
+	 *            references the periodic message.
+	 */
+	private void startSoftware(CyclicMessage cyclic)
+	{
+		if (null == this.wheel)
+		{
+			this.wheel = new TimingWheelTransmitScheduler(this.channel);
+		}
+		cyclic.setTransmission(this.wheel.schedule(cyclic.toMessage(),
+				cyclic.getPeriodNanos(), TimeUnit.NANOSECONDS));
+		this.softwareMessages.add(cyclic);
+	}
+
+	/**
+	 * Stops sending a message by the software scheduler.
+	 * 
+	 * @param cyclic
+	 *            references the periodic message.
+	 */
+	private void stopSoftware(CyclicMessage cyclic)
+	{
+		cyclic.getTransmission().cancel();
+		cyclic.setTransmission(null);
+		this.softwareMessages.remove(cyclic);
+	}
+}
@@ -42,4 +42,10 @@ public class FIFOReadException extends TinyCANException
 	{
 		super(returnCode, message);
 	}
+
+	protected FIFOReadException(int returnCode, String message,
+			boolean writableStackTrace)
+	{
+		super(returnCode, message, writableStackTrace);
+	}
 }
@@ -42,4 +42,10 @@ public class FIFOWriteException extends TinyCANException
 	{
 		super(returnCode, message);
 	}
+
+	protected FIFOWriteException(int returnCode, String message,
+			boolean writableStackTrace)
+	{
+		super(returnCode, message, writableStackTrace);
+	}
 }
@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Buffer to capture large numbers of CAN frames in memory. Frames are stored
+ * column-wise in primitive arrays (message IDs, native flags, payloads and
+ * timestamps), so a frame needs 24 bytes of memory. The arrays are allocated
+ * in chunks, so the buffer grows without copying captured frames. Frames are
+ * appended directly from the receive buffer of a channel using
+ * {@link Channel#read(FrameBuffer, int)}.
+ * 
+ * @author gabriel
+ */
+public class FrameBuffer implements Iterable<CompactMessage>
+{
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private int[][] ids;
+	private int[][] flags;
+	private long[][] payloads;
+	private long[][] timestamps;
+	private int size;
+
+	/**
+	 * Constructs an empty frame buffer.
+	 */
+	public FrameBuffer()
+	{
+		this.ids = new int[0][];
+		this.flags = new int[0][];
+		this.payloads = new long[0][];
+		this.timestamps = new long[0][];
+		this.size = 0;
+	}
+
+	/**
+	 * @return the number of frames in this buffer.
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return the number of frames which can still be appended to this buffer.
+	 */
+	public int remainingCapacity()
+	{
+		return Integer.MAX_VALUE - this.size;
+	}
+
+	/**
+	 * Removes all frames from this buffer and releases its memory.
+	 */
+	public void clear()
+	{
+		this.ids = new int[0][];
+		this.flags = new int[0][];
+		this.payloads = new long[0][];
+		this.timestamps = new long[0][];
+		this.size = 0;
+	}
+
+	/**
+	 * Appends a frame.
+	 * 
+	 * @param id
+	 *            contains the message ID.
+	 * @param flags
+	 *            contains the native flags.
+	 * @param payload
+	 *            contains the data bytes, data byte i in bits 8 * i to 8 * i +
+	 *            7.
+	 * @param timestamp
+	 *            contains the seconds in the upper and the microseconds in the
+	 *            lower 32 bits.
+	 * @throws IllegalStateException
+	 *             if the buffer is full.
+	 */
+	public void add(int id, int flags, long payload, long timestamp)
+	{
+		if (this.size == Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Frame buffer is full!");
+		}
+		int chunk = this.size >>> CHUNK_BITS;
+		if (chunk == this.ids.length)
+		{
+			this.grow();
+		}
+		int i = this.size & CHUNK_MASK;
+		this.ids[chunk][i] = id;
+		this.flags[chunk][i] = flags;
+		this.payloads[chunk][i] = payload;
+		this.timestamps[chunk][i] = timestamp;
+		this.size++;
+	}
+
+	/**
+	 * Appends a frame.
+	 * 
+	 * @param msg
+	 *            references the frame.
+	 * @throws IllegalStateException
+	 *             if the buffer is full.
+	 */
+	public void add(CANMessage msg)
+	{
+		CompactMessage compact = CompactMessage.of(msg);
+		this.add(compact.getId(), compact.getFlags(), compact.getPayload(),
+				compact.getTimestamp());
+	}
+
+	/**
+	 * Appends native frames.
+	 * 
+	 * @param frames
+	 *            references a buffer of native frames in native byte order.
+	 * @param offset
+	 *            contains the offset of the first frame within the buffer.
+	 * @param count
+	 *            contains the number of frames to append.
+	 */
+	protected void add(ByteBuffer frames, int offset, int count)
+	{
+		for (int i = 0; i < count; i++, offset += NativeAccess.CAN_MSG_SIZE)
+		{
+			this.add(
+					frames.getInt(offset + NativeAccess.CAN_MSG_ID_OFFSET),
+					frames.getInt(offset + NativeAccess.CAN_MSG_FLAGS_OFFSET),
+					Messages.payloadAt(frames, offset),
+					CompactMessage.timestamp(
+							frames.getInt(offset
+									+ NativeAccess.CAN_MSG_SEC_OFFSET),
+							frames.getInt(offset
+									+ NativeAccess.CAN_MSG_USEC_OFFSET)));
+		}
+	}
+
+	private void grow()
+	{
+		int chunks = this.ids.length + 1;
+		this.ids = Arrays.copyOf(this.ids, chunks);
+		this.flags = Arrays.copyOf(this.flags, chunks);
+		this.payloads = Arrays.copyOf(this.payloads, chunks);
+		this.timestamps = Arrays.copyOf(this.timestamps, chunks);
+		this.ids[chunks - 1] = new int[CHUNK_SIZE];
+		this.flags[chunks - 1] = new int[CHUNK_SIZE];
+		this.payloads[chunks - 1] = new long[CHUNK_SIZE];
+		this.timestamps[chunks - 1] = new long[CHUNK_SIZE];
+	}
+
+	private void checkIndex(int i)
+	{
+		if (i < 0 || i >= this.size)
+		{
+			throw new IndexOutOfBoundsException("Index " + i
+					+ " exceeds frame buffer of size " + this.size + "!");
+		}
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the frame.
+	 * @return the message ID of the frame.
+	 */
+	public int getId(int i)
+	{
+		this.checkIndex(i);
+		return this.ids[i >>> CHUNK_BITS][i & CHUNK_MASK];
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the frame.
+	 * @return the native flags of the frame.
+	 */
+	public int getFlags(int i)
+	{
+		this.checkIndex(i);
+		return this.flags[i >>> CHUNK_BITS][i & CHUNK_MASK];
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the frame.
+	 * @return the data bytes of the frame, data byte i in bits 8 * i to 8 * i
+	 *         + 7.
+	 */
+	public long getPayload(int i)
+	{
+		this.checkIndex(i);
+		return this.payloads[i >>> CHUNK_BITS][i & CHUNK_MASK];
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the frame.
+	 * @return the timestamp of the frame, the seconds in the upper and the
+	 *         microseconds in the lower 32 bits.
+	 */
+	public long getTimestamp(int i)
+	{
+		this.checkIndex(i);
+		return this.timestamps[i >>> CHUNK_BITS][i & CHUNK_MASK];
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the frame.
+	 * @return the frame.
+	 */
+	public CompactMessage get(int i)
+	{
+		this.checkIndex(i);
+		int chunk = i >>> CHUNK_BITS;
+		int j = i & CHUNK_MASK;
+		return new CompactMessage(CompactMessage.header(this.ids[chunk][j],
+				this.flags[chunk][j]), this.payloads[chunk][j],
+				this.timestamps[chunk][j]);
+	}
+
+	@Override
+	public Iterator<CompactMessage> iterator()
+	{
+		return new Iterator<CompactMessage>()
+		{
+			private int next = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return this.next < FrameBuffer.this.size;
+			}
+
+			@Override
+			public CompactMessage next()
+			{
+				if (!this.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return FrameBuffer.this.get(this.next++);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException(FrameBuffer.class
+						.getName() + " doesn't support remove!");
+			}
+		};
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+/**
+ * Predicate over the raw fields of a CAN frame, which can be evaluated on
+ * native frames before any message object is created.
+ * 
+ * @author gabriel
+ * @see Channel#setReceivePredicate(FramePredicate)
+ */
+public abstract class FramePredicate
+{
+	/**
+	 * @param id
+	 *            contains the message ID.
+	 * @param flags
+	 *            contains the native flags (see the CAN_MSG_FLAG constants
+	 *            of {@link de.hardwarespielerei.can.tinycan.jna.NativeAccess}
+	 *            ).
+	 * @param payload
+	 *            contains the data bytes, data byte i in bits 8 * i to 8 * i +
+	 *            7.
+	 * @return true if the frame matches this predicate.
+	 */
+	public abstract boolean test(int id, int flags, long payload);
+
+	/**
+	 * @param msg
+	 *            references the message.
+	 * @return true if the message matches this predicate, data bytes beyond
+	 *         the frame size are 0.
+	 */
+	public boolean test(CANMessage msg)
+	{
+		int flags = Messages.flagsOf(msg);
+		return this.test(msg.getId(), flags,
+				Messages.maskPayload(Messages.payloadOf(msg), flags));
+	}
+
+	/**
+	 * @param frames
+	 *            references captured frames.
+	 * @param i
+	 *            contains the index of the frame.
+	 * @return true if the frame matches this predicate, data bytes beyond
+	 *         the frame size are 0.
+	 */
+	public boolean test(FrameBuffer frames, int i)
+	{
+		int flags = frames.getFlags(i);
+		return this.test(frames.getId(i), flags,
+				Messages.maskPayload(frames.getPayload(i), flags));
+	}
+}
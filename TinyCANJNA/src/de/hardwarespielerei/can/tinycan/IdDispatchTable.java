@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+/**
+ * Receive callback which dispatches messages to handlers registered per CAN
+ * ID, replacing if/switch chains on {@link CANMessage#getId()}. Handlers for
+ * standard IDs are kept in a dense array of all 2048 IDs, handlers for
+ * extended IDs in a primitive hash map, so dispatching a message takes
+ * constant time regardless of the number of registered IDs. Messages without
+ * a handler go to the default handler if one is set.
+ * 
+ * Handlers may be registered while messages are dispatched, e. g.:
+ * 
+ * <pre>
+ * IdDispatchTable table = new IdDispatchTable();
+ * table.register(0x100, engineHandler);
+ * table.register(0x200, 0x2FF, bodyHandler);
+ * table.registerExtended(0x18FEF100, j1939Handler);
+ * channel.setBatchReceiveCallBack(table);
+ * </pre>
+ * 
+ * @author gabriel
+ */
+public class IdDispatchTable implements ReceiveCallback, BatchReceiveCallback
+{
+	private static final int STANDARD_ID_COUNT = 0x800;
+	private static final int EXTENDED_ID_MASK = 0x1FFFFFFF;
+
+	// copied on write, so dispatching reads them without locking
+	private volatile ReceiveCallback[] standard = new ReceiveCallback[STANDARD_ID_COUNT];
+	private volatile IntObjectMap<ReceiveCallback> extended = new IntObjectMap<ReceiveCallback>();
+	private volatile ReceiveCallback defaultHandler = null;
+
+	/**
+	 * Registers a handler for a standard ID.
+	 * 
+	 * @param id
+	 *            contains the 11 bit ID.
+	 * @param handler
+	 *            references the handler or null to remove the handler.
+	 * @throws IllegalArgumentException
+	 *             if the ID has more than 11 bits.
+	 */
+	public void register(int id, ReceiveCallback handler)
+	{
+		this.register(id, id, handler);
+	}
+
+	/**
+	 * Registers a handler for a range of standard IDs.
+	 * 
+	 * @param from
+	 *            contains the first 11 bit ID.
+	 * @param to
+	 *            contains the last 11 bit ID.
+	 * @param handler
+	 *            references the handler or null to remove the handlers.
+	 * @throws IllegalArgumentException
+	 *             if an ID has more than 11 bits or from is greater than to.
+	 */
+	public synchronized void register(int from, int to, ReceiveCallback handler)
+	{
+		checkRange(from, to, STANDARD_ID_COUNT - 1);
+		ReceiveCallback[] handlers = this.standard.clone();
+		for (int id = from; id <= to; id++)
+		{
+			handlers[id] = handler;
+		}
+		this.standard = handlers;
+	}
+
+	/**
+	 * Registers a handler for an extended ID.
+	 * 
+	 * @param id
+	 *            contains the 29 bit ID.
+	 * @param handler
+	 *            references the handler or null to remove the handler.
+	 * @throws IllegalArgumentException
+	 *             if the ID has more than 29 bits.
+	 */
+	public void registerExtended(int id, ReceiveCallback handler)
+	{
+		this.registerExtended(id, id, handler);
+	}
+
+	/**
+	 * Registers a handler for a range of extended IDs. Every ID of the range
+	 * takes an entry in the map, so ranges should be small.
+	 * 
+	 * @param from
+	 *            contains the first 29 bit ID.
+	 * @param to
+	 *            contains the last 29 bit ID.
+	 * @param handler
+	 *            references the handler or null to remove the handlers.
+	 * @throws IllegalArgumentException
+	 *             if an ID has more than 29 bits or from is greater than to.
+	 */
+	public synchronized void registerExtended(int from, int to,
+			ReceiveCallback handler)
+	{
+		checkRange(from, to, EXTENDED_ID_MASK);
+		IntObjectMap<ReceiveCallback> handlers = this.extended.copy();
+		for (int id = from; id <= to; id++)
+		{
+			handlers.put(id, handler);
+		}
+		this.extended = handlers;
+	}
+
+	/**
+	 * Sets the handler for messages without a registered handler.
+	 * 
+	 * @param handler
+	 *            references the handler or null to drop these messages.
+	 */
+	public void setDefaultHandler(ReceiveCallback handler)
+	{
+		this.defaultHandler = handler;
+	}
+
+	/**
+	 * @param id
+	 *            contains the message ID.
+	 * @param isExtendedFrameFormat
+	 *            has to be true for an extended ID.
+	 * @return the handler registered for the ID or null if there is none.
+	 */
+	public ReceiveCallback getHandler(int id, boolean isExtendedFrameFormat)
+	{
+		return (isExtendedFrameFormat ? this.extended.get(id
+				& EXTENDED_ID_MASK) : this.standard[id
+				& (STANDARD_ID_COUNT - 1)]);
+	}
+
+	@Override
+	public void callback(CANMessage msg)
+	{
+		ReceiveCallback handler = this.getHandler(msg.getId(),
+				msg.isExtendedFrameFormat());
+		if (null == handler)
+		{
+			handler = this.defaultHandler;
+		}
+		if (null != handler)
+		{
+			handler.callback(msg);
+		}
+	}
+
+	@Override
+	public void callback(CANMessage[] msgs, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			try
+			{
+				this.callback(msgs[i]);
+			} catch (Exception e)
+			{
+				// ignore, try to process next message...
+			}
+		}
+	}
+
+	private static void checkRange(int from, int to, int max)
+	{
+		if (from < 0 || to > max || from > to)
+		{
+			throw new IllegalArgumentException("Invalid ID range 0x"
+					+ Integer.toHexString(from) + " to 0x"
+					+ Integer.toHexString(to) + "!");
+		}
+	}
+}
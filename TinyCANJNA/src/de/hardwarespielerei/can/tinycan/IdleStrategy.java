@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+/**
+ * Strategy for idling a thread which polls for messages, e. g. the receive
+ * loop of a {@link Channel}. The strategy decides how to spend the time
+ * between polls which didn't return any messages: spinning keeps latency low
+ * and burns a core, parking saves CPU and adds latency. Each strategy counts
+ * how often it spun, yielded and parked.
+ * 
+ * An idle strategy is stateful and must only be used by one thread.
+ * 
+ * @author gabriel
+ * @see Channel#startReceiveLoop(ReceiveCallback, IdleStrategy)
+ */
+public abstract class IdleStrategy
+{
+	private volatile long spinCount = 0;
+	private volatile long yieldCount = 0;
+	private volatile long parkCount = 0;
+
+	/**
+	 * Idles after a poll if it didn't do any work, resets this strategy
+	 * otherwise.
+	 * 
+	 * @param workCount
+	 *            contains the number of messages processed by the poll.
+	 */
+	public void idle(int workCount)
+	{
+		if (0 < workCount)
+		{
+			this.reset();
+		} else
+		{
+			this.idle();
+		}
+	}
+
+	/**
+	 * Idles once.
+	 */
+	public abstract void idle();
+
+	/**
+	 * Resets this strategy after work has been done.
+	 */
+	public abstract void reset();
+
+	/**
+	 * @return how often this strategy spun.
+	 */
+	public long getSpinCount()
+	{
+		return this.spinCount;
+	}
+
+	/**
+	 * @return how often this strategy yielded the processor.
+	 */
+	public long getYieldCount()
+	{
+		return this.yieldCount;
+	}
+
+	/**
+	 * @return how often this strategy parked the thread.
+	 */
+	public long getParkCount()
+	{
+		return this.parkCount;
+	}
+
+	protected void countSpin()
+	{
+		this.spinCount++;
+	}
+
+	protected void countYield()
+	{
+		this.yieldCount++;
+	}
+
+	protected void countPark()
+	{
+		this.parkCount++;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (this.getClass().getSimpleName() + " (spins: "
+				+ this.spinCount + ", yields: " + this.yieldCount
+				+ ", parks: " + this.parkCount + ")");
+	}
+}
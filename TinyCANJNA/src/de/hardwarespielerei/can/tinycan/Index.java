@@ -43,8 +43,8 @@ public class Index
 	 * @param isTxD
 	 *            has to be true for a send buffer, false for a receive buffer.
 	 * @param device
-	 *            contains the CAN device ID. The parameter is not supported yet
-	 *            and always 0.
+	 *            contains the CAN device ID. Each open {@link Channel} uses its
+	 *            own device ID to tell apart receive events.
 	 * @param channel
 	 *            the CAN channel ID. The parameter is not supported yet and
 	 *            always 0.
@@ -87,7 +87,7 @@ public class Index
 
 	/**
 	 * @return the CAN device ID. It is used when multiple modules are connected
-	 *         to the PC. The parameter is not supported yet and always 0.
+	 *         to the PC.
 	 */
 	public byte getDevice()
 	{
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.Arrays;
+
+/**
+ * Map of non-negative int keys to objects using open addressing with linear
+ * probing, so looking up a key neither boxes it nor allocates memory.
+ * 
+ * @author gabriel
+ * @param <V>
+ *            type of the values.
+ */
+class IntObjectMap<V>
+{
+	private static final int EMPTY = -1;
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+
+	protected IntObjectMap()
+	{
+		this(MIN_CAPACITY);
+	}
+
+	private IntObjectMap(int capacity)
+	{
+		this.keys = new int[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		this.size = 0;
+	}
+
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @param key
+	 *            contains the key.
+	 * @return the value of the key or null if the key isn't mapped.
+	 */
+	@SuppressWarnings("unchecked")
+	protected V get(int key)
+	{
+		int slot = hash(key) & this.mask;
+		while (true)
+		{
+			int k = this.keys[slot];
+			if (k == key)
+			{
+				return (V) this.values[slot];
+			} else if (k == EMPTY)
+			{
+				return null;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	/**
+	 * Maps a key to a value.
+	 * 
+	 * @param key
+	 *            contains the key.
+	 * @param value
+	 *            references the value, null removes the key.
+	 * @throws IllegalArgumentException
+	 *             if the key is negative.
+	 */
+	protected void put(int key, V value)
+	{
+		if (key < 0)
+		{
+			throw new IllegalArgumentException("Invalid key " + key + "!");
+		}
+		if (null == value)
+		{
+			this.remove(key);
+			return;
+		}
+		if ((this.size + 1) * 2 > this.keys.length)
+		{
+			this.resize(this.keys.length * 2);
+		}
+		int slot = hash(key) & this.mask;
+		while (this.keys[slot] != EMPTY && this.keys[slot] != key)
+		{
+			slot = (slot + 1) & this.mask;
+		}
+		if (this.keys[slot] == EMPTY)
+		{
+			this.keys[slot] = key;
+			this.size++;
+		}
+		this.values[slot] = value;
+	}
+
+	/**
+	 * Removes a key.
+	 * 
+	 * @param key
+	 *            contains the key.
+	 */
+	protected void remove(int key)
+	{
+		int slot = hash(key) & this.mask;
+		while (this.keys[slot] != key)
+		{
+			if (this.keys[slot] == EMPTY)
+			{
+				return;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		// shift back following keys of the probe sequence into the gap
+		int gap = slot;
+		slot = (slot + 1) & this.mask;
+		while (this.keys[slot] != EMPTY)
+		{
+			int home = hash(this.keys[slot]) & this.mask;
+			if (((slot - home) & this.mask) >= ((slot - gap) & this.mask))
+			{
+				this.keys[gap] = this.keys[slot];
+				this.values[gap] = this.values[slot];
+				gap = slot;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.keys[gap] = EMPTY;
+		this.values[gap] = null;
+		this.size--;
+	}
+
+	/**
+	 * @return the number of mapped keys.
+	 */
+	protected int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return a copy of this map.
+	 */
+	protected IntObjectMap<V> copy()
+	{
+		IntObjectMap<V> copy = new IntObjectMap<V>(this.keys.length);
+		System.arraycopy(this.keys, 0, copy.keys, 0, this.keys.length);
+		System.arraycopy(this.values, 0, copy.values, 0, this.values.length);
+		copy.size = this.size;
+		return copy;
+	}
+
+	private void resize(int capacity)
+	{
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new int[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != EMPTY)
+			{
+				int slot = hash(oldKeys[i]) & this.mask;
+				while (this.keys[slot] != EMPTY)
+				{
+					slot = (slot + 1) & this.mask;
+				}
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+	}
+}
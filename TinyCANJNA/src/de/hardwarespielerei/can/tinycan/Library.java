@@ -27,13 +27,18 @@ package de.hardwarespielerei.can.tinycan;
 import static com.sun.jna.platform.win32.WinReg.HKEY_LOCAL_MACHINE;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 
 import com.sun.jna.Native;
 import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
 import com.sun.jna.platform.win32.Advapi32Util;
 import com.sun.jna.platform.win32.Win32Exception;
 
+import de.hardwarespielerei.can.tinycan.jna.DirectNativeAccess;
 import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess.NativeReceiveCallback;
 
 /**
  * Controls loading and unloading of the library and provides access to the
@@ -43,11 +48,33 @@ import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
  */
 public class Library
 {
+	/**
+	 * Passes receive events to the handler of the channel the event is for.
+	 */
+	private static class ReceiveDemultiplexer implements NativeReceiveCallback
+	{
+		@Override
+		public void callback(int index, Pointer msg, int count)
+		{
+			int device = (index >> DEVICE_SHIFT) & DEVICE_MASK;
+			NativeReceiveCallback handler = Library.receiveHandlers[device];
+			if (null != handler)
+			{
+				handler.callback(index, msg, count);
+			}
+		}
+	}
+
+	private static final int DEVICE_COUNT = 16;
+	private static final int DEVICE_SHIFT = 20;
+	private static final int DEVICE_MASK = DEVICE_COUNT - 1;
+
 	private static final String REG_TINY_CAN_API_X64 = "Software\\Wow6432Node\\Tiny-CAN\\API";
 	private static final String REG_TINY_CAN_API = "Software\\Tiny-CAN\\API";
 	private static final String REG_TINY_CAN_API_PATH_ENTRY = "PATH";
 	private static final String API_DRIVER_X64_DIR = "x64";
 	private static final String API_DRIVER_NAME = "mhstcan";
+	private static final String FOREIGN_NATIVE_ACCESS = "de.hardwarespielerei.can.tinycan.ffm.ForeignNativeAccess";
 
 	// private static final String API_DRIVER_DLL = "mhstcan.dll";
 
@@ -75,6 +102,13 @@ public class Library
 	}
 
 	private static NativeAccess nativeAccess;
+	private static Binding binding;
+
+	private static final boolean[] devicesInUse = new boolean[DEVICE_COUNT];
+	// copied on write, so the demultiplexer reads it without locking
+	private static volatile NativeReceiveCallback[] receiveHandlers = new NativeReceiveCallback[DEVICE_COUNT];
+	private static NativeReceiveCallback receiveDemultiplexer;
+	private static boolean receiveEventsEnabled;
 
 	/**
 	 * Loads the library.
@@ -97,6 +131,24 @@ public class Library
 	 *             on errors while accessing Tiny-CAN.
 	 */
 	public static void load(String options) throws TinyCANException
+	{
+		Library.load(options, Binding.InterfaceMapping);
+	}
+
+	/**
+	 * Loads the library using options to the driver and the given binding.
+	 * 
+	 * @param options
+	 *            contains a key-value-list of options for the driver (see
+	 *            chapter 3.5.3 of the Tiny-CAN API Referenz-Handbuch for format
+	 *            of the list and available options).
+	 * @param binding
+	 *            references the binding used to call the driver.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	public static void load(String options, Binding binding)
+			throws TinyCANException
 	{
 		if (null == nativeAccess)
 		{
@@ -117,20 +169,69 @@ public class Library
 					}
 				}
 			}
-			Library.nativeAccess = (NativeAccess) Native.loadLibrary(
-					API_DRIVER_NAME, NativeAccess.class);
+			if (Binding.ForeignFunctions == binding)
+			{
+				Library.nativeAccess = Library.loadForeignNativeAccess();
+			} else
+			{
+				Library.nativeAccess = (NativeAccess) Native.loadLibrary(
+						API_DRIVER_NAME, NativeAccess.class);
+			}
+			if (Binding.DirectMapping == binding)
+			{
+				DirectNativeAccess.register(API_DRIVER_NAME);
+			}
+			Library.binding = binding;
 			TinyCANException.throwOnErrorCode(
 					nativeAccess.CanInitDriver(options), "Can't init driver!");
 		}
 	}
 
+	private static NativeAccess loadForeignNativeAccess()
+	{
+		// loaded by reflection, so this class still runs on older Java versions
+		try
+		{
+			return (NativeAccess) Class.forName(FOREIGN_NATIVE_ACCESS)
+					.getConstructor(String.class).newInstance(API_DRIVER_NAME);
+		} catch (InvocationTargetException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error)
+			{
+				throw (Error) e.getCause();
+			}
+			throw new UnsupportedOperationException(
+					"Can't load Tiny-CAN DLL using foreign functions!",
+					e.getCause());
+		} catch (ReflectiveOperationException | LinkageError e)
+		{
+			throw new UnsupportedOperationException(
+					"Foreign functions require Java 22 or above!", e);
+		}
+	}
+
 	/**
 	 * Unloads the library.
 	 */
 	public static void unload()
 	{
+		synchronized (Library.class)
+		{
+			Arrays.fill(Library.devicesInUse, false);
+			Library.receiveHandlers = new NativeReceiveCallback[DEVICE_COUNT];
+			Library.receiveDemultiplexer = null;
+			Library.receiveEventsEnabled = false;
+		}
 		nativeAccess.CanDownDriver();
+		if (Binding.DirectMapping == binding)
+		{
+			DirectNativeAccess.unregister();
+		}
 		nativeAccess = null;
+		binding = null;
 	}
 
 	/**
@@ -142,4 +243,129 @@ public class Library
 	{
 		return Library.nativeAccess;
 	}
+
+	/**
+	 * @return the binding used to call the driver, null if the library isn't
+	 *         loaded.
+	 */
+	public static Binding getBinding()
+	{
+		return Library.binding;
+	}
+
+	/**
+	 * Reserves a device number for a channel. Device numbers tell apart the
+	 * channels of this process in the index parameter, the first channel
+	 * always gets device number 0.
+	 * 
+	 * @return the device number.
+	 * @throws IllegalStateException
+	 *             if all device numbers are in use.
+	 */
+	protected static synchronized byte openDevice()
+	{
+		for (int device = 0; device < DEVICE_COUNT; device++)
+		{
+			if (!Library.devicesInUse[device])
+			{
+				Library.devicesInUse[device] = true;
+				return (byte) device;
+			}
+		}
+		throw new IllegalStateException("All " + DEVICE_COUNT
+				+ " devices are in use!");
+	}
+
+	/**
+	 * Releases a device number and removes its receive handler.
+	 * 
+	 * @param device
+	 *            contains the device number.
+	 */
+	protected static synchronized void closeDevice(byte device)
+	{
+		Library.setReceiveHandler(device, null);
+		Library.devicesInUse[device] = false;
+	}
+
+	/**
+	 * Sets the handler for receive events of a device. A single native
+	 * callback is registered with the driver, it passes each event to the
+	 * handler of the device in its index parameter. Receive events are enabled
+	 * as long as any handler is set, so changing a handler doesn't call the
+	 * driver then.
+	 * 
+	 * @param device
+	 *            contains the device number.
+	 * @param handler
+	 *            references the handler or null to remove it.
+	 */
+	protected static synchronized void setReceiveHandler(byte device,
+			NativeReceiveCallback handler)
+	{
+		NativeReceiveCallback[] handlers = Arrays.copyOf(
+				Library.receiveHandlers, DEVICE_COUNT);
+		handlers[device] = handler;
+		Library.receiveHandlers = handlers;
+		boolean required = false;
+		for (NativeReceiveCallback h : handlers)
+		{
+			required |= (null != h);
+		}
+		if (required && !Library.receiveEventsEnabled)
+		{
+			if (null == Library.receiveDemultiplexer)
+			{
+				Library.receiveDemultiplexer = new ReceiveDemultiplexer();
+				Library.nativeAccess
+						.CanSetRxEventCallback(Library.receiveDemultiplexer);
+			}
+			Library.nativeAccess.CanSetEvents(EventMask.EnableReceiveMessages
+					.getCode());
+			Library.receiveEventsEnabled = true;
+		} else if (!required && Library.receiveEventsEnabled)
+		{
+			Library.nativeAccess.CanSetEvents(EventMask.DisableReceiveMessages
+					.getCode());
+			Library.receiveEventsEnabled = false;
+		}
+	}
+
+	// hot path functions, called using the binding selected on load
+
+	protected static int receive(int index, Pointer msg, int count)
+	{
+		if (Binding.DirectMapping == Library.binding)
+		{
+			return DirectNativeAccess.CanReceive(index, msg, count);
+		}
+		return Library.nativeAccess.CanReceive(index, msg, count);
+	}
+
+	protected static int receiveGetCount(int index)
+	{
+		if (Binding.DirectMapping == Library.binding)
+		{
+			return DirectNativeAccess.CanReceiveGetCount(index);
+		}
+		return Library.nativeAccess.CanReceiveGetCount(index);
+	}
+
+	protected static int transmit(int index, Pointer msg, int count)
+	{
+		if (Binding.DirectMapping == Library.binding)
+		{
+			return DirectNativeAccess.CanTransmit(index, msg, count);
+		}
+		return Library.nativeAccess.CanTransmit(index, msg, count);
+	}
+
+	protected static int transmitGetCount(int index)
+	{
+		if (Binding.DirectMapping == Library.binding)
+		{
+			return DirectNativeAccess.CanTransmitGetCount(index);
+		}
+		return Library.nativeAccess.CanTransmitGetCount(index);
+	}
 }
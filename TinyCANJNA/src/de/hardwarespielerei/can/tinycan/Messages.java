@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Helpers to convert between the fields of CAN frames and their primitive
+ * representation. The payload of a frame is packed into a long with data byte
+ * i in bits 8 * i to 8 * i + 7.
+ * 
+ * @author gabriel
+ */
+final class Messages
+{
+	private Messages()
+	{
+		// static access only
+	}
+
+	/**
+	 * @param msg
+	 *            references a CAN frame.
+	 * @return the native flags of the frame.
+	 */
+	protected static int flagsOf(CANMessage msg)
+	{
+		if (msg instanceof NativeMessage)
+		{
+			return ((NativeMessage) msg).getFlags();
+		} else if (msg instanceof NativeMessageView)
+		{
+			return ((NativeMessageView) msg).getFlags();
+		} else if (msg instanceof CompactMessage)
+		{
+			return ((CompactMessage) msg).getFlags();
+		}
+		return (msg.getLength() & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK)
+				| (msg.isTransmitted() ? NativeAccess.CAN_MSG_FLAG_TXD : 0)
+				| (msg.isReserved() ? NativeAccess.CAN_MSG_FLAG_RESERVED : 0)
+				| (msg.isRemoteTransmitionRequest() ? NativeAccess.CAN_MSG_FLAG_RTR
+						: 0)
+				| (msg.isExtendedFrameFormat() ? NativeAccess.CAN_MSG_FLAG_EFF
+						: 0)
+				| ((msg.getSource() & 0xFF) << NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT);
+	}
+
+	/**
+	 * @param data
+	 *            references up to eight data bytes, may be null.
+	 * @return the packed payload.
+	 */
+	protected static long payloadOf(byte[] data)
+	{
+		long payload = 0;
+		if (null != data)
+		{
+			for (int i = Math.min(data.length, 8) - 1; i >= 0; i--)
+			{
+				payload = (payload << 8) | (data[i] & 0xFF);
+			}
+		}
+		return payload;
+	}
+
+	/**
+	 * @param msg
+	 *            references a CAN frame.
+	 * @return the packed payload of the frame.
+	 */
+	protected static long payloadOf(CANMessage msg)
+	{
+		if (msg instanceof CompactMessage)
+		{
+			return ((CompactMessage) msg).getPayload();
+		} else if (msg instanceof NativeMessageView)
+		{
+			NativeMessageView view = (NativeMessageView) msg;
+			return payloadAt(view.getFrames(), view.getOffset());
+		}
+		return payloadOf(msg.getData());
+	}
+
+	/**
+	 * @param payload
+	 *            contains a packed payload.
+	 * @param i
+	 *            contains the index of the data byte, 0 to 7.
+	 * @return the data byte.
+	 */
+	protected static byte dataOf(long payload, int i)
+	{
+		return (byte) (payload >>> (i << 3));
+	}
+
+	/**
+	 * @param payload
+	 *            contains a packed payload.
+	 * @return the eight data bytes.
+	 */
+	protected static byte[] dataOf(long payload)
+	{
+		byte[] data = new byte[8];
+		for (int i = 0; i < data.length; i++)
+		{
+			data[i] = dataOf(payload, i);
+		}
+		return data;
+	}
+
+	/**
+	 * @param frames
+	 *            references a buffer of native frames.
+	 * @param offset
+	 *            contains the offset of the frame within the buffer.
+	 * @return the packed payload of the frame.
+	 */
+	protected static long payloadAt(ByteBuffer frames, int offset)
+	{
+		long payload = frames.getLong(offset + NativeAccess.CAN_MSG_DATA_OFFSET);
+		return (ByteOrder.LITTLE_ENDIAN == frames.order() ? payload : Long
+				.reverseBytes(payload));
+	}
+
+	/**
+	 * @param payload
+	 *            contains a packed payload.
+	 * @param flags
+	 *            contains the native flags of the frame.
+	 * @return the payload without the bytes beyond the data length, which
+	 *         the driver doesn't clear.
+	 */
+	protected static long maskPayload(long payload, int flags)
+	{
+		int length = flags & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK;
+		return (8 <= length ? payload : payload & ((1L << (8 * length)) - 1));
+	}
+
+	/**
+	 * @param frames
+	 *            references a buffer of native frames.
+	 * @param offset
+	 *            contains the offset of the frame within the buffer.
+	 * @param payload
+	 *            contains the packed payload to store into the frame.
+	 */
+	protected static void putPayloadAt(ByteBuffer frames, int offset,
+			long payload)
+	{
+		frames.putLong(offset + NativeAccess.CAN_MSG_DATA_OFFSET,
+				(ByteOrder.LITTLE_ENDIAN == frames.order() ? payload : Long
+						.reverseBytes(payload)));
+	}
+}
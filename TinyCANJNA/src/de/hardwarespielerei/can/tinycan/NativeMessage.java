@@ -24,6 +24,8 @@
 
 package de.hardwarespielerei.can.tinycan;
 
+import java.nio.ByteBuffer;
+
 import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
 import de.hardwarespielerei.can.tinycan.jna.NativeAccess.CANMsg;
 
@@ -64,9 +66,10 @@ public class NativeMessage implements CANMessage
 		}
 		this.msg = new CANMsg();
 		this.msg.id = id;
-		this.msg.flags = (length & 0xF)
-				| (isRemoteTransmitionRequest ? 0x40 : 0)
-				| (isExtendedFrameFormat ? 0x80 : 0);
+		this.msg.flags = (length & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK)
+				| (isRemoteTransmitionRequest ? NativeAccess.CAN_MSG_FLAG_RTR
+						: 0)
+				| (isExtendedFrameFormat ? NativeAccess.CAN_MSG_FLAG_EFF : 0);
 		// this.msg.data = data;
 		for (int i = 0; i < data.length; i++)
 		{
@@ -82,11 +85,75 @@ public class NativeMessage implements CANMessage
 		this.msg = msg;
 	}
 
+	/**
+	 * Constructs a CAN frame from its native fields.
+	 * 
+	 * @param id
+	 *            contains the message ID.
+	 * @param flags
+	 *            contains the native flags.
+	 * @param payload
+	 *            contains the data bytes, data byte i in bits 8 * i to 8 * i +
+	 *            7.
+	 * @param seconds
+	 * @param useconds
+	 */
+	protected NativeMessage(int id, int flags, long payload, int seconds,
+			int useconds)
+	{
+		this.msg = new CANMsg();
+		this.msg.id = id;
+		this.msg.flags = flags;
+		for (int i = 0; i < this.msg.data.length; i++)
+		{
+			this.msg.data[i] = Messages.dataOf(payload, i);
+		}
+		this.msg.time = new NativeAccess.Time();
+		this.msg.time.sec = seconds;
+		this.msg.time.usec = useconds;
+	}
+
+	/**
+	 * Constructs a CAN frame by decoding a native frame.
+	 * 
+	 * @param frames
+	 *            references a buffer of native frames, e. g. a view on native
+	 *            memory. The buffer's byte order has to be the native byte
+	 *            order.
+	 * @param offset
+	 *            contains the offset of the frame within the buffer.
+	 */
+	protected NativeMessage(ByteBuffer frames, int offset)
+	{
+		this.msg = new CANMsg();
+		this.msg.id = frames.getInt(offset + NativeAccess.CAN_MSG_ID_OFFSET);
+		this.msg.flags = frames.getInt(offset
+				+ NativeAccess.CAN_MSG_FLAGS_OFFSET);
+		for (int i = 0; i < this.msg.data.length; i++)
+		{
+			this.msg.data[i] = frames.get(offset
+					+ NativeAccess.CAN_MSG_DATA_OFFSET + i);
+		}
+		this.msg.time = new NativeAccess.Time();
+		this.msg.time.sec = frames.getInt(offset
+				+ NativeAccess.CAN_MSG_SEC_OFFSET);
+		this.msg.time.usec = frames.getInt(offset
+				+ NativeAccess.CAN_MSG_USEC_OFFSET);
+	}
+
 	protected CANMsg getNativeMessage()
 	{
 		return this.msg;
 	}
 
+	/**
+	 * @return the native flags.
+	 */
+	protected int getFlags()
+	{
+		return this.msg.flags;
+	}
+
 	/**
 	 * @return message ID.
 	 */
@@ -98,32 +165,31 @@ public class NativeMessage implements CANMessage
 	@Override
 	public boolean isTransmitted()
 	{
-		return (this.msg.flags & 0x80000) == 0x80000;
+		return (this.msg.flags & NativeAccess.CAN_MSG_FLAG_TXD) != 0;
 	}
 
 	@Override
 	public boolean isReserved()
 	{
-		return (this.msg.flags & 0x40000) == 0x40000;
+		return (this.msg.flags & NativeAccess.CAN_MSG_FLAG_RESERVED) != 0;
 	}
 
 	@Override
 	public boolean isRemoteTransmitionRequest()
 	{
-		return (this.msg.flags & 0x20000) == 0x20000;
+		return (this.msg.flags & NativeAccess.CAN_MSG_FLAG_RTR) != 0;
 	}
 
 	@Override
 	public boolean isExtendedFrameFormat()
 	{
-		return (this.msg.flags & 0x10000) == 0x20000;
+		return (this.msg.flags & NativeAccess.CAN_MSG_FLAG_EFF) != 0;
 	}
 
 	@Override
 	public byte getSource()
 	{
-		// TODO Auto-generated method stub
-		return 0;
+		return (byte) (this.msg.flags >> NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT);
 	}
 
 	/**
@@ -132,7 +198,7 @@ public class NativeMessage implements CANMessage
 	public byte getLength()
 	{
 		// return (byte) ((this.msg.flags >> 28) & 0x8);
-		return (byte) (this.msg.flags & 0xF);
+		return (byte) (this.msg.flags & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK);
 	}
 
 	/**
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.sun.jna.Pointer;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Flyweight CAN frame positioned over a native frame in a buffer. Nothing is
+ * copied when the view is positioned, all fields are decoded from the buffer
+ * on access. A single view can be moved over many frames, so consumers
+ * filtering and discarding frames don't create any message objects. Use
+ * {@link #copy()} to keep a frame.
+ * 
+ * @author gabriel
+ */
+public class NativeMessageView implements CANMessage
+{
+	private ByteBuffer frames;
+	private int offset;
+	private byte[] data;
+
+	/**
+	 * Constructs a view which is not positioned yet.
+	 */
+	public NativeMessageView()
+	{
+		this.frames = null;
+		this.offset = 0;
+		this.data = new byte[8];
+	}
+
+	/**
+	 * Positions this view over a native frame in a buffer.
+	 * 
+	 * @param frames
+	 *            references a buffer of native frames, e. g. a view on native
+	 *            memory.
+	 * @param offset
+	 *            contains the offset of the frame within the buffer.
+	 * @return this view.
+	 * @throws IndexOutOfBoundsException
+	 *             if the frame exceeds the buffer.
+	 */
+	public NativeMessageView wrap(ByteBuffer frames, int offset)
+	{
+		if (offset < 0 || offset + NativeAccess.CAN_MSG_SIZE > frames.limit())
+		{
+			throw new IndexOutOfBoundsException("Frame at offset " + offset
+					+ " exceeds buffer of " + frames.limit() + " bytes!");
+		}
+		if (this.frames != frames)
+		{
+			this.frames = (frames.order() == ByteOrder.nativeOrder() ? frames
+					: frames.duplicate().order(ByteOrder.nativeOrder()));
+		}
+		this.offset = offset;
+		return this;
+	}
+
+	/**
+	 * Positions this view over a native frame in native memory. This creates a
+	 * buffer on the native memory, so prefer {@link #wrap(ByteBuffer, int)}
+	 * when moving over many frames.
+	 * 
+	 * @param frame
+	 *            references the native frame.
+	 * @return this view.
+	 */
+	public NativeMessageView wrap(Pointer frame)
+	{
+		return this.wrap(frame.getByteBuffer(0, NativeAccess.CAN_MSG_SIZE), 0);
+	}
+
+	/**
+	 * @return the buffer of the frame in native byte order.
+	 */
+	protected ByteBuffer getFrames()
+	{
+		return this.frames;
+	}
+
+	/**
+	 * @return the offset of the frame within the buffer.
+	 */
+	public int getOffset()
+	{
+		return this.offset;
+	}
+
+	/**
+	 * @return a copy of the frame which stays valid after this view has been
+	 *         moved or the buffer has been reused.
+	 */
+	public CANMessage copy()
+	{
+		return new NativeMessage(this.frames, this.offset);
+	}
+
+	/**
+	 * @return the native flags of the frame.
+	 */
+	protected int getFlags()
+	{
+		return this.frames.getInt(this.offset
+				+ NativeAccess.CAN_MSG_FLAGS_OFFSET);
+	}
+
+	@Override
+	public int getId()
+	{
+		return this.frames.getInt(this.offset + NativeAccess.CAN_MSG_ID_OFFSET);
+	}
+
+	@Override
+	public byte getLength()
+	{
+		return (byte) (this.getFlags() & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK);
+	}
+
+	@Override
+	public boolean isTransmitted()
+	{
+		return (this.getFlags() & NativeAccess.CAN_MSG_FLAG_TXD) != 0;
+	}
+
+	@Override
+	public boolean isReserved()
+	{
+		return (this.getFlags() & NativeAccess.CAN_MSG_FLAG_RESERVED) != 0;
+	}
+
+	@Override
+	public boolean isRemoteTransmitionRequest()
+	{
+		return (this.getFlags() & NativeAccess.CAN_MSG_FLAG_RTR) != 0;
+	}
+
+	@Override
+	public boolean isExtendedFrameFormat()
+	{
+		return (this.getFlags() & NativeAccess.CAN_MSG_FLAG_EFF) != 0;
+	}
+
+	@Override
+	public byte getSource()
+	{
+		return (byte) (this.getFlags() >> NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT);
+	}
+
+	/**
+	 * @param i
+	 *            contains the index of the data byte, 0 to 7.
+	 * @return the data byte.
+	 */
+	public byte getData(int i)
+	{
+		if (i < 0 || i >= this.data.length)
+		{
+			throw new IndexOutOfBoundsException("Invalid data byte " + i + "!");
+		}
+		return this.frames.get(this.offset + NativeAccess.CAN_MSG_DATA_OFFSET
+				+ i);
+	}
+
+	/**
+	 * @return the data bytes, data byte i in bits 8 * i to 8 * i + 7.
+	 */
+	public long getPayload()
+	{
+		return Messages.payloadAt(this.frames, this.offset);
+	}
+
+	/**
+	 * @return the data bytes. The array is owned by this view and overwritten
+	 *         on the next call.
+	 */
+	@Override
+	public byte[] getData()
+	{
+		for (int i = 0; i < this.data.length; i++)
+		{
+			this.data[i] = this.frames.get(this.offset
+					+ NativeAccess.CAN_MSG_DATA_OFFSET + i);
+		}
+		return this.data;
+	}
+
+	@Override
+	public int getSeconds()
+	{
+		return this.frames.getInt(this.offset
+				+ NativeAccess.CAN_MSG_SEC_OFFSET);
+	}
+
+	@Override
+	public int getMicroSeconds()
+	{
+		return this.frames.getInt(this.offset
+				+ NativeAccess.CAN_MSG_USEC_OFFSET);
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.copy().toString();
+	}
+}
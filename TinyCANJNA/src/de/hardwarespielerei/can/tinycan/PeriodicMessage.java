@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.TimeUnit;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Message sent periodically by a scheduler, with a fixed header and period
+ * and a payload which can be updated while the message is being sent.
+ * 
+ * @author gabriel
+ * @see CyclicMessage
+ * @see PeriodicTransmission
+ */
+public abstract class PeriodicMessage
+{
+	private final long header;
+	private final long periodNanos;
+	private volatile long payload;
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructs a periodic message.
+	 * 
+	 * @param header
+	 *            contains the packed header of the message.
+	 * @param payload
+	 *            contains the packed payload of the message.
+	 * @param periodNanos
+	 *            contains the period in nanoseconds.
+	 */
+	protected PeriodicMessage(long header, long payload, long periodNanos)
+	{
+		this.header = header;
+		this.payload = payload;
+		this.periodNanos = periodNanos;
+		this.cancelled = false;
+	}
+
+	/**
+	 * @return the message ID.
+	 */
+	public int getId()
+	{
+		return (int) (this.header >>> 32);
+	}
+
+	/**
+	 * @return true if the message ID is an extended (29 bit) one, false
+	 *         otherwise.
+	 */
+	public boolean isExtendedFrameFormat()
+	{
+		return (this.header & NativeAccess.CAN_MSG_FLAG_EFF) != 0;
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the period.
+	 */
+	public long getPeriod(TimeUnit unit)
+	{
+		return unit.convert(this.periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the packed payload, data byte i in bits 8 * i to 8 * i + 7.
+	 */
+	public long getPayload()
+	{
+		return this.payload;
+	}
+
+	/**
+	 * @return true if the message has been cancelled, false otherwise.
+	 */
+	public boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+
+	/**
+	 * @return the message with the current payload.
+	 */
+	protected CompactMessage toMessage()
+	{
+		return new CompactMessage(this.header, this.payload, 0);
+	}
+
+	protected long getHeader()
+	{
+		return this.header;
+	}
+
+	protected long getPeriodNanos()
+	{
+		return this.periodNanos;
+	}
+
+	protected void setPayloadValue(long payload)
+	{
+		this.payload = payload;
+	}
+
+	protected void setCancelled()
+	{
+		this.cancelled = true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Periodic message 0x" + Integer.toHexString(this.getId())
+				+ " every " + this.getPeriod(TimeUnit.MICROSECONDS) + " us";
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic message of a {@link TimingWheelTransmitScheduler}. The payload can
+ * be updated while the message is being sent, without scheduling it again.
+ * 
+ * The jitter of each transmission is the time from the moment the message was
+ * due to the moment it was passed to the driver. Statistics about it are
+ * kept per message.
+ * 
+ * @author gabriel
+ * @see TimingWheelTransmitScheduler#schedule(CANMessage, long, long, TimeUnit)
+ */
+public class PeriodicTransmission extends PeriodicMessage
+{
+	private final TimingWheelTransmitScheduler scheduler;
+
+	// wheel state, guarded by the scheduler
+	private PeriodicTransmission previous;
+	private PeriodicTransmission next;
+	private int bucket;
+	private long rounds;
+	private long deadlineNanos;
+
+	// statistics, written by the timer thread only
+	private volatile long sendCount;
+	private volatile long missCount;
+	private volatile long minJitterNanos;
+	private volatile long maxJitterNanos;
+	private volatile long jitterSumNanos;
+	private volatile long lastJitterNanos;
+
+	/**
+	 * Constructs a periodic message.
+	 * 
+	 * @param scheduler
+	 *            references the scheduler sending the message.
+	 * @param header
+	 *            contains the packed header of the message.
+	 * @param payload
+	 *            contains the packed payload of the message.
+	 * @param periodNanos
+	 *            contains the period in nanoseconds.
+	 * @param deadlineNanos
+	 *            contains the time the message is due first, see
+	 *            {@link System#nanoTime()}.
+	 */
+	protected PeriodicTransmission(TimingWheelTransmitScheduler scheduler,
+			long header, long payload, long periodNanos, long deadlineNanos)
+	{
+		super(header, payload, periodNanos);
+		this.scheduler = scheduler;
+		this.deadlineNanos = deadlineNanos;
+		this.previous = null;
+		this.next = null;
+		this.bucket = -1;
+		this.rounds = 0;
+		this.minJitterNanos = Long.MAX_VALUE;
+		this.maxJitterNanos = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Updates the payload sent from the next period on. The frame size isn't
+	 * changed.
+	 * 
+	 * @param payload
+	 *            contains the packed payload, data byte i in bits 8 * i to 8 *
+	 *            i + 7.
+	 */
+	public void setPayload(long payload)
+	{
+		this.setPayloadValue(payload);
+	}
+
+	/**
+	 * Updates the data bytes sent from the next period on. The frame size
+	 * isn't changed.
+	 * 
+	 * @param data
+	 *            contains up to eight data bytes.
+	 */
+	public void setData(byte[] data)
+	{
+		this.setPayload(Messages.payloadOf(data));
+	}
+
+	/**
+	 * Stops sending the message. A transmission already taken from the wheel
+	 * may still be sent.
+	 */
+	public void cancel()
+	{
+		this.scheduler.cancel(this);
+	}
+
+	/**
+	 * @return the number of transmissions accepted by the driver.
+	 */
+	public long getSendCount()
+	{
+		return this.sendCount;
+	}
+
+	/**
+	 * @return the number of transmissions rejected by the driver, e. g.
+	 *         because its transmit FIFO was full.
+	 */
+	public long getMissCount()
+	{
+		return this.missCount;
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the smallest jitter or 0 if the message hasn't been sent yet.
+	 */
+	public long getMinJitter(TimeUnit unit)
+	{
+		return (0 == this.sendCount ? 0 : unit.convert(this.minJitterNanos,
+				TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the largest jitter or 0 if the message hasn't been sent yet.
+	 */
+	public long getMaxJitter(TimeUnit unit)
+	{
+		return (0 == this.sendCount ? 0 : unit.convert(this.maxJitterNanos,
+				TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the mean jitter or 0 if the message hasn't been sent yet.
+	 */
+	public long getMeanJitter(TimeUnit unit)
+	{
+		long cnt = this.sendCount;
+		return (0 == cnt ? 0 : unit.convert(this.jitterSumNanos / cnt,
+				TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the jitter of the last transmission or 0 if the message hasn't
+	 *         been sent yet.
+	 */
+	public long getLastJitter(TimeUnit unit)
+	{
+		return unit.convert(this.lastJitterNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records a transmission. Called by the timer thread only.
+	 * 
+	 * @param jitterNanos
+	 *            contains the time from the deadline to the transmission.
+	 * @param accepted
+	 *            is true if the driver accepted the frame, false otherwise.
+	 */
+	protected void record(long jitterNanos, boolean accepted)
+	{
+		if (!accepted)
+		{
+			this.missCount++;
+			return;
+		}
+		this.lastJitterNanos = jitterNanos;
+		this.jitterSumNanos += jitterNanos;
+		if (jitterNanos < this.minJitterNanos)
+		{
+			this.minJitterNanos = jitterNanos;
+		}
+		if (jitterNanos > this.maxJitterNanos)
+		{
+			this.maxJitterNanos = jitterNanos;
+		}
+		this.sendCount++;
+	}
+
+	protected PeriodicTransmission getPrevious()
+	{
+		return this.previous;
+	}
+
+	protected void setPrevious(PeriodicTransmission previous)
+	{
+		this.previous = previous;
+	}
+
+	protected PeriodicTransmission getNext()
+	{
+		return this.next;
+	}
+
+	protected void setNext(PeriodicTransmission next)
+	{
+		this.next = next;
+	}
+
+	/**
+	 * @return the bucket of the wheel holding the message, -1 if it isn't on
+	 *         the wheel.
+	 */
+	protected int getBucket()
+	{
+		return this.bucket;
+	}
+
+	protected void setBucket(int bucket)
+	{
+		this.bucket = bucket;
+	}
+
+	/**
+	 * @return the number of turns of the wheel until the message is due.
+	 */
+	protected long getRounds()
+	{
+		return this.rounds;
+	}
+
+	protected void setRounds(long rounds)
+	{
+		this.rounds = rounds;
+	}
+
+	protected long getDeadlineNanos()
+	{
+		return this.deadlineNanos;
+	}
+
+	protected void setDeadlineNanos(long deadlineNanos)
+	{
+		this.deadlineNanos = deadlineNanos;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import com.sun.jna.Pointer;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * CAN frame received into a preallocated native message slot of a
+ * {@link Channel}. The message is decoded from native memory on access. Call
+ * {@link #release()} when done with the message to return the slot to the
+ * channel; the message must not be used afterwards. Use {@link #copy()} to keep
+ * a message beyond that.
+ * 
+ * @author gabriel
+ * @see Channel#readPooled()
+ */
+public class PooledMessage extends NativeMessageView
+{
+	private ReceivePool pool;
+	private int slot;
+	private Pointer frame;
+	private boolean inUse;
+
+	protected PooledMessage(ReceivePool pool, int slot, Pointer frame)
+	{
+		super();
+		this.pool = pool;
+		this.slot = slot;
+		this.frame = frame;
+		this.inUse = false;
+		this.wrap(frame.getByteBuffer(0, NativeAccess.CAN_MSG_SIZE), 0);
+	}
+
+	/**
+	 * @return the native memory of this message's slot.
+	 */
+	protected Pointer getFrame()
+	{
+		return this.frame;
+	}
+
+	protected int getSlot()
+	{
+		return this.slot;
+	}
+
+	protected boolean isInUse()
+	{
+		return this.inUse;
+	}
+
+	protected void setInUse(boolean inUse)
+	{
+		this.inUse = inUse;
+	}
+
+	/**
+	 * Returns this message to its channel's pool.
+	 * 
+	 * @throws IllegalStateException
+	 *             if this message has already been released.
+	 */
+	public void release()
+	{
+		this.pool.release(this);
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receive callback which decouples a slow callback from the thread receiving
+ * the messages, e. g. the receive event thread of the driver. Messages are
+ * put into a bounded lock-free queue and passed to the target callback on a
+ * dedicated thread or an executor. If the queue is full, the
+ * {@link OverflowPolicy} decides what happens, dropped messages are counted.
+ * 
+ * Used as a {@link BatchReceiveCallback}, a burst of messages is queued with
+ * a single wake up of the consumer.
+ * 
+ * Only one thread may pass messages to a dispatcher at a time, which is the
+ * case for receive callbacks and the receive loop of a {@link Channel}.
+ * Exceptions thrown by the target callback are ignored.
+ * 
+ * @author gabriel
+ * @see Channel#setReceiveCallBack(ReceiveCallback)
+ * @see Channel#setBatchReceiveCallBack(BatchReceiveCallback)
+ */
+public class ReceiveDispatcher implements ReceiveCallback,
+		BatchReceiveCallback
+{
+	private static final long BLOCK_PARK_NANOS = 50000;
+
+	private class Drain implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			do
+			{
+				ReceiveDispatcher.this.drain();
+				ReceiveDispatcher.this.scheduled.set(false);
+			} while (!ReceiveDispatcher.this.isEmpty()
+					&& ReceiveDispatcher.this.scheduled.compareAndSet(false,
+							true));
+		}
+	}
+
+	private class Consumer extends Thread
+	{
+		private volatile boolean waiting;
+
+		private Consumer(String name)
+		{
+			super(name);
+			this.setDaemon(true);
+			this.waiting = false;
+		}
+
+		@Override
+		public void run()
+		{
+			while (ReceiveDispatcher.this.running)
+			{
+				ReceiveDispatcher.this.drain();
+				this.waiting = true;
+				if (ReceiveDispatcher.this.isEmpty()
+						&& ReceiveDispatcher.this.running)
+				{
+					LockSupport.park(ReceiveDispatcher.this);
+				}
+				this.waiting = false;
+			}
+			ReceiveDispatcher.this.drain();
+		}
+	}
+
+	private final ReceiveCallback target;
+	private final OverflowPolicy policy;
+	private final AtomicReferenceArray<CANMessage> queue;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropCount = new AtomicLong();
+
+	private final Executor executor;
+	private final Drain drain;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Consumer consumer;
+	private volatile boolean running;
+
+	/**
+	 * Constructs a dispatcher which passes messages to the target callback on
+	 * a dedicated daemon thread.
+	 * 
+	 * @param target
+	 *            references the callback to pass the messages to.
+	 * @param capacity
+	 *            contains the minimum number of messages the queue can hold,
+	 *            rounded up to a power of two.
+	 * @param policy
+	 *            contains the policy for a full queue.
+	 * @throws IllegalArgumentException
+	 *             if capacity is less than 1 or greater than 2^30.
+	 */
+	public ReceiveDispatcher(ReceiveCallback target, int capacity,
+			OverflowPolicy policy)
+	{
+		this(target, capacity, policy, null);
+	}
+
+	/**
+	 * Constructs a dispatcher which passes messages to the target callback on
+	 * an executor. At most one task draining the queue is submitted at a time.
+	 * 
+	 * @param target
+	 *            references the callback to pass the messages to.
+	 * @param capacity
+	 *            contains the minimum number of messages the queue can hold,
+	 *            rounded up to a power of two.
+	 * @param policy
+	 *            contains the policy for a full queue.
+	 * @param executor
+	 *            references the executor or null to use a dedicated daemon
+	 *            thread.
+	 * @throws IllegalArgumentException
+	 *             if capacity is less than 1 or greater than 2^30.
+	 */
+	public ReceiveDispatcher(ReceiveCallback target, int capacity,
+			OverflowPolicy policy, Executor executor)
+	{
+		if (capacity < 1 || capacity > (1 << 30))
+		{
+			throw new IllegalArgumentException("Invalid capacity " + capacity
+					+ "!");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+		{
+			size <<= 1;
+		}
+		this.target = target;
+		this.policy = policy;
+		this.queue = new AtomicReferenceArray<CANMessage>(size);
+		this.mask = size - 1;
+		this.executor = executor;
+		this.drain = new Drain();
+		this.running = true;
+		if (null == executor)
+		{
+			this.consumer = new Consumer("Receive dispatcher of " + target);
+			this.consumer.start();
+		} else
+		{
+			this.consumer = null;
+		}
+	}
+
+	/**
+	 * Queues a message for the target callback. A {@link NativeMessageView}
+	 * is copied because it is only valid during the callback.
+	 */
+	@Override
+	public void callback(CANMessage msg)
+	{
+		if (msg instanceof NativeMessageView)
+		{
+			msg = ((NativeMessageView) msg).copy();
+		}
+		if (this.offer(msg))
+		{
+			this.schedule();
+		}
+	}
+
+	/**
+	 * Queues a burst of messages for the target callback.
+	 */
+	@Override
+	public void callback(CANMessage[] msgs, int count)
+	{
+		boolean queued = false;
+		for (int i = 0; i < count; i++)
+		{
+			CANMessage msg = msgs[i];
+			if (msg instanceof NativeMessageView)
+			{
+				msg = ((NativeMessageView) msg).copy();
+			}
+			queued |= this.offer(msg);
+		}
+		if (queued)
+		{
+			this.schedule();
+		}
+	}
+
+	private boolean offer(CANMessage msg)
+	{
+		long t = this.tail.get();
+		long h = this.head.get();
+		while (t - h > this.mask)
+		{
+			switch (this.policy)
+			{
+				case DropNewest:
+					this.dropCount.incrementAndGet();
+					return false;
+				case DropOldest:
+					// the consumer may take the oldest message at the same time
+					if (this.head.compareAndSet(h, h + 1))
+					{
+						this.dropCount.incrementAndGet();
+					}
+					break;
+				default:
+					if (!this.running)
+					{
+						this.dropCount.incrementAndGet();
+						return false;
+					}
+					this.schedule();
+					LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+					break;
+			}
+			h = this.head.get();
+		}
+		this.queue.set((int) t & this.mask, msg);
+		this.tail.set(t + 1);
+		return true;
+	}
+
+	private CANMessage poll()
+	{
+		while (true)
+		{
+			long h = this.head.get();
+			if (h == this.tail.get())
+			{
+				return null;
+			}
+			int slot = (int) h & this.mask;
+			CANMessage msg = this.queue.get(slot);
+			// fails if the producer dropped the message meanwhile
+			if (this.head.compareAndSet(h, h + 1))
+			{
+				this.queue.compareAndSet(slot, msg, null);
+				return msg;
+			}
+		}
+	}
+
+	private boolean isEmpty()
+	{
+		return this.head.get() == this.tail.get();
+	}
+
+	private void schedule()
+	{
+		if (null == this.executor)
+		{
+			if (this.consumer.waiting)
+			{
+				LockSupport.unpark(this.consumer);
+			}
+		} else if (this.scheduled.compareAndSet(false, true))
+		{
+			this.executor.execute(this.drain);
+		}
+	}
+
+	private void drain()
+	{
+		CANMessage msg = this.poll();
+		while (null != msg)
+		{
+			try
+			{
+				this.target.callback(msg);
+			} catch (Exception e)
+			{
+				// ignore, try to process next message...
+			}
+			msg = this.poll();
+		}
+	}
+
+	/**
+	 * @return the number of messages waiting in the queue.
+	 */
+	public int size()
+	{
+		return (int) Math.max(0, this.tail.get() - this.head.get());
+	}
+
+	/**
+	 * @return the capacity of the queue.
+	 */
+	public int getCapacity()
+	{
+		return this.mask + 1;
+	}
+
+	/**
+	 * @return the policy for a full queue.
+	 */
+	public OverflowPolicy getOverflowPolicy()
+	{
+		return this.policy;
+	}
+
+	/**
+	 * @return the number of messages dropped because the queue was full.
+	 */
+	public long getDropCount()
+	{
+		return this.dropCount.get();
+	}
+
+	/**
+	 * Stops the dedicated thread after it has passed the queued messages to
+	 * the target callback and waits for it to terminate. Messages passed to
+	 * this dispatcher afterwards are not delivered. Using an executor, queued
+	 * messages are still delivered by the executor.
+	 * 
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 */
+	public void close() throws InterruptedException
+	{
+		this.running = false;
+		if (null != this.consumer)
+		{
+			LockSupport.unpark(this.consumer);
+			this.consumer.join();
+		}
+	}
+}
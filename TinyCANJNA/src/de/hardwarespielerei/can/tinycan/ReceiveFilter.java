@@ -0,0 +1,416 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Software acceptance filter for received messages. A filter is built from
+ * mask/code pairs, ID ranges and ID lists and compiled into a bit set of all
+ * standard IDs and a hash set of extended IDs, so a channel can check the raw
+ * ID of a received frame before any message object is created. Extended
+ * mask/code pairs and large extended ranges are checked one by one.
+ * 
+ * Payload rules thin out frames of single IDs, e. g. multiplexed IDs, by
+ * their data bytes: a frame of an ID with payload rules is accepted only if
+ * its data bytes match one of the rules, regardless of the other rules. Each
+ * payload rule is checked with a single 64 bit AND and compare.
+ * 
+ * <pre>
+ * ReceiveFilter filter = new ReceiveFilter.Builder()
+ * 		.acceptIds(false, 0x100, 0x120, 0x7DF)
+ * 		.acceptRange(false, 0x200, 0x2FF)
+ * 		.acceptMaskCode(true, 0x1FFFF00, 0x18FEF00)
+ * 		.acceptPayload(false, 0x300, 0xFFL, 0x02L).build();
+ * channel.setReceiveFilter(filter);
+ * </pre>
+ * 
+ * @author gabriel
+ * @see Channel#setReceiveFilter(ReceiveFilter)
+ */
+public final class ReceiveFilter
+{
+	/**
+	 * Collects the messages accepted by a filter.
+	 */
+	public static class Builder
+	{
+		private long[] standardIds = new long[STANDARD_ID_COUNT / 64];
+		private IntObjectMap<Boolean> extendedIds = new IntObjectMap<Boolean>();
+		private int[] extendedMasks = new int[0];
+		private int[] extendedCodes = new int[0];
+		private int[] extendedFrom = new int[0];
+		private int[] extendedTo = new int[0];
+		private IntObjectMap<long[]> payloadRules = null;
+
+		/**
+		 * Accepts all messages whose ID matches the code in all bits set in
+		 * the mask.
+		 * 
+		 * @param isExtendedFrameFormat
+		 *            has to be true for extended IDs, false for standard IDs.
+		 * @param mask
+		 *            contains the bits of the ID to compare.
+		 * @param code
+		 *            contains the expected values of these bits.
+		 * @return this builder.
+		 */
+		public Builder acceptMaskCode(boolean isExtendedFrameFormat, int mask,
+				int code)
+		{
+			if (isExtendedFrameFormat)
+			{
+				int n = this.extendedMasks.length;
+				this.extendedMasks = Arrays.copyOf(this.extendedMasks, n + 1);
+				this.extendedCodes = Arrays.copyOf(this.extendedCodes, n + 1);
+				this.extendedMasks[n] = mask & EXTENDED_ID_MASK;
+				this.extendedCodes[n] = code & mask & EXTENDED_ID_MASK;
+			} else
+			{
+				for (int id = 0; id < STANDARD_ID_COUNT; id++)
+				{
+					if ((id & mask) == (code & mask))
+					{
+						this.acceptStandard(id);
+					}
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Accepts all messages with IDs from a range.
+		 * 
+		 * @param isExtendedFrameFormat
+		 *            has to be true for extended IDs, false for standard IDs.
+		 * @param from
+		 *            contains the first ID.
+		 * @param to
+		 *            contains the last ID.
+		 * @return this builder.
+		 * @throws IllegalArgumentException
+		 *             if an ID is out of range or from is greater than to.
+		 */
+		public Builder acceptRange(boolean isExtendedFrameFormat, int from,
+				int to)
+		{
+			checkId(isExtendedFrameFormat, from);
+			checkId(isExtendedFrameFormat, to);
+			if (from > to)
+			{
+				throw new IllegalArgumentException("Invalid ID range 0x"
+						+ Integer.toHexString(from) + " to 0x"
+						+ Integer.toHexString(to) + "!");
+			}
+			if (!isExtendedFrameFormat)
+			{
+				for (int id = from; id <= to; id++)
+				{
+					this.acceptStandard(id);
+				}
+			} else if (to - from < MAX_HASHED_RANGE)
+			{
+				for (int id = from; id <= to; id++)
+				{
+					this.extendedIds.put(id, Boolean.TRUE);
+				}
+			} else
+			{
+				int n = this.extendedFrom.length;
+				this.extendedFrom = Arrays.copyOf(this.extendedFrom, n + 1);
+				this.extendedTo = Arrays.copyOf(this.extendedTo, n + 1);
+				this.extendedFrom[n] = from;
+				this.extendedTo[n] = to;
+			}
+			return this;
+		}
+
+		/**
+		 * Accepts all messages with the given IDs.
+		 * 
+		 * @param isExtendedFrameFormat
+		 *            has to be true for extended IDs, false for standard IDs.
+		 * @param ids
+		 *            contains the IDs.
+		 * @return this builder.
+		 * @throws IllegalArgumentException
+		 *             if an ID is out of range.
+		 */
+		public Builder acceptIds(boolean isExtendedFrameFormat, int... ids)
+		{
+			for (int id : ids)
+			{
+				checkId(isExtendedFrameFormat, id);
+				if (isExtendedFrameFormat)
+				{
+					this.extendedIds.put(id, Boolean.TRUE);
+				} else
+				{
+					this.acceptStandard(id);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Accepts messages of an ID whose data bytes match a value in all
+		 * bits set in a mask. Data byte i is in bits 8 * i to 8 * i + 7 of
+		 * mask and value, data bytes beyond the frame size are 0. Once an ID
+		 * has payload rules, only messages matching one of them are accepted.
+		 * 
+		 * @param isExtendedFrameFormat
+		 *            has to be true for an extended ID, false for a standard
+		 *            ID.
+		 * @param id
+		 *            contains the ID.
+		 * @param mask
+		 *            contains the bits of the data bytes to compare.
+		 * @param value
+		 *            contains the expected values of these bits.
+		 * @return this builder.
+		 * @throws IllegalArgumentException
+		 *             if the ID is out of range.
+		 */
+		public Builder acceptPayload(boolean isExtendedFrameFormat, int id,
+				long mask, long value)
+		{
+			checkId(isExtendedFrameFormat, id);
+			if (null == this.payloadRules)
+			{
+				this.payloadRules = new IntObjectMap<long[]>();
+			}
+			int key = payloadKey(id, isExtendedFrameFormat);
+			long[] pairs = this.payloadRules.get(key);
+			pairs = (null == pairs ? new long[2] : Arrays.copyOf(pairs,
+					pairs.length + 2));
+			pairs[pairs.length - 2] = mask;
+			pairs[pairs.length - 1] = value & mask;
+			this.payloadRules.put(key, pairs);
+			return this;
+		}
+
+		/**
+		 * Accepts messages of an ID whose data bytes match values in all bits
+		 * set in masks.
+		 * 
+		 * @param isExtendedFrameFormat
+		 *            has to be true for an extended ID, false for a standard
+		 *            ID.
+		 * @param id
+		 *            contains the ID.
+		 * @param mask
+		 *            contains up to 8 masks for the data bytes.
+		 * @param value
+		 *            contains up to 8 expected values of the data bytes.
+		 * @return this builder.
+		 * @throws IllegalArgumentException
+		 *             if the ID is out of range or an array is longer than 8
+		 *             bytes.
+		 * @see #acceptPayload(boolean, int, long, long)
+		 */
+		public Builder acceptPayload(boolean isExtendedFrameFormat, int id,
+				byte[] mask, byte[] value)
+		{
+			if (mask.length > 8 || value.length > 8)
+			{
+				throw new IllegalArgumentException(
+						"Payload is more than 8 bytes long!");
+			}
+			return this.acceptPayload(isExtendedFrameFormat, id,
+					Messages.payloadOf(mask), Messages.payloadOf(value));
+		}
+
+		private void acceptStandard(int id)
+		{
+			this.standardIds[id >>> 6] |= 1L << id;
+		}
+
+		/**
+		 * @return the compiled filter.
+		 */
+		public ReceiveFilter build()
+		{
+			return new ReceiveFilter(this);
+		}
+	}
+
+	private static final int STANDARD_ID_COUNT = 0x800;
+	private static final int STANDARD_ID_MASK = STANDARD_ID_COUNT - 1;
+	private static final int EXTENDED_ID_MASK = 0x1FFFFFFF;
+	private static final int MAX_HASHED_RANGE = 4096;
+
+	private final long[] standardIds;
+	private final IntObjectMap<Boolean> extendedIds;
+	private final int[] extendedMasks;
+	private final int[] extendedCodes;
+	private final int[] extendedFrom;
+	private final int[] extendedTo;
+	private final IntObjectMap<long[]> payloadRules;
+
+	private ReceiveFilter(Builder builder)
+	{
+		this.standardIds = builder.standardIds.clone();
+		this.extendedIds = builder.extendedIds.copy();
+		this.extendedMasks = builder.extendedMasks;
+		this.extendedCodes = builder.extendedCodes;
+		this.extendedFrom = builder.extendedFrom;
+		this.extendedTo = builder.extendedTo;
+		this.payloadRules = (null == builder.payloadRules ? null
+				: builder.payloadRules.copy());
+	}
+
+	private static int payloadKey(int id, boolean isExtendedFrameFormat)
+	{
+		return (isExtendedFrameFormat ? (id & EXTENDED_ID_MASK)
+				| (EXTENDED_ID_MASK + 1) : id & STANDARD_ID_MASK);
+	}
+
+	private static void checkId(boolean isExtendedFrameFormat, int id)
+	{
+		if (id < 0
+				|| id > (isExtendedFrameFormat ? EXTENDED_ID_MASK
+						: STANDARD_ID_MASK))
+		{
+			throw new IllegalArgumentException("Invalid "
+					+ (isExtendedFrameFormat ? "extended" : "standard")
+					+ " ID 0x" + Integer.toHexString(id) + "!");
+		}
+	}
+
+	/**
+	 * @param id
+	 *            contains the message ID.
+	 * @param isExtendedFrameFormat
+	 *            has to be true for an extended ID.
+	 * @return true if messages with the ID pass this filter, for an ID with
+	 *         payload rules if some messages with the ID may pass.
+	 */
+	public boolean accepts(int id, boolean isExtendedFrameFormat)
+	{
+		return (null != this.payloadRules && null != this.payloadRules
+				.get(payloadKey(id, isExtendedFrameFormat)))
+				|| this.acceptsId(id, isExtendedFrameFormat);
+	}
+
+	private boolean acceptsId(int id, boolean isExtendedFrameFormat)
+	{
+		if (!isExtendedFrameFormat)
+		{
+			id &= STANDARD_ID_MASK;
+			return 0 != (this.standardIds[id >>> 6] & (1L << id));
+		}
+		id &= EXTENDED_ID_MASK;
+		if (null != this.extendedIds.get(id))
+		{
+			return true;
+		}
+		for (int i = 0; i < this.extendedMasks.length; i++)
+		{
+			if ((id & this.extendedMasks[i]) == this.extendedCodes[i])
+			{
+				return true;
+			}
+		}
+		for (int i = 0; i < this.extendedFrom.length; i++)
+		{
+			if (id >= this.extendedFrom[i] && id <= this.extendedTo[i])
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param msg
+	 *            references the message.
+	 * @return true if the message passes this filter.
+	 */
+	public boolean accepts(CANMessage msg)
+	{
+		if (null == this.payloadRules)
+		{
+			return this.acceptsId(msg.getId(), msg.isExtendedFrameFormat());
+		}
+		return this.accepts(msg.getId(), Messages.flagsOf(msg),
+				Messages.payloadOf(msg.getData()));
+	}
+
+	/**
+	 * @param id
+	 *            contains the raw ID of a native frame.
+	 * @param flags
+	 *            contains the raw flags of a native frame.
+	 * @param payload
+	 *            contains the data bytes of a native frame, data byte i in
+	 *            bits 8 * i to 8 * i + 7.
+	 * @return true if the frame passes this filter.
+	 */
+	protected boolean accepts(int id, int flags, long payload)
+	{
+		boolean isExtendedFrameFormat = (0 != (flags & NativeAccess.CAN_MSG_FLAG_EFF));
+		if (null != this.payloadRules)
+		{
+			long[] pairs = this.payloadRules.get(payloadKey(id,
+					isExtendedFrameFormat));
+			if (null != pairs)
+			{
+				int length = flags & NativeAccess.CAN_MSG_FLAG_LENGTH_MASK;
+				if (length < 8)
+				{
+					// data bytes beyond the frame size are 0
+					payload &= (1L << (length << 3)) - 1;
+				}
+				for (int i = 0; i < pairs.length; i += 2)
+				{
+					if ((payload & pairs[i]) == pairs[i + 1])
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+		}
+		return this.acceptsId(id, isExtendedFrameFormat);
+	}
+
+	/**
+	 * @param frames
+	 *            references a buffer of native frames in native byte order.
+	 * @param offset
+	 *            contains the offset of the frame within the buffer.
+	 * @return true if the frame passes this filter.
+	 */
+	protected boolean accepts(ByteBuffer frames, int offset)
+	{
+		return this.accepts(
+				frames.getInt(offset + NativeAccess.CAN_MSG_ID_OFFSET),
+				frames.getInt(offset + NativeAccess.CAN_MSG_FLAGS_OFFSET),
+				(null == this.payloadRules ? 0 : Messages.payloadAt(frames,
+						offset)));
+	}
+}
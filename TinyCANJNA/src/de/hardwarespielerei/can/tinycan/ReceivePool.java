@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan;
+
+import com.sun.jna.Memory;
+
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Preallocated native message slots of a {@link Channel}. Acquiring and
+ * releasing a slot doesn't allocate any memory.
+ * 
+ * @author gabriel
+ * @see Channel#setReceivePoolSize(int)
+ */
+class ReceivePool
+{
+	private Memory memory;
+	private PooledMessage[] messages;
+	private int[] free;
+	private int freeCount;
+
+	/**
+	 * Constructs a pool of native message slots.
+	 * 
+	 * @param size
+	 *            contains the number of slots.
+	 */
+	protected ReceivePool(int size)
+	{
+		this.memory = new Memory((long) size * NativeAccess.CAN_MSG_SIZE);
+		this.messages = new PooledMessage[size];
+		this.free = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			this.messages[i] = new PooledMessage(this, i, this.memory.share(
+					(long) i * NativeAccess.CAN_MSG_SIZE,
+					NativeAccess.CAN_MSG_SIZE));
+			this.free[i] = size - 1 - i;
+		}
+		this.freeCount = size;
+	}
+
+	/**
+	 * @return the number of slots of this pool.
+	 */
+	protected int getSize()
+	{
+		return this.messages.length;
+	}
+
+	/**
+	 * @return a free slot or null if all slots are in use.
+	 */
+	protected synchronized PooledMessage acquire()
+	{
+		if (0 == this.freeCount)
+		{
+			return null;
+		}
+		PooledMessage msg = this.messages[this.free[--this.freeCount]];
+		msg.setInUse(true);
+		return msg;
+	}
+
+	/**
+	 * Returns a slot to this pool.
+	 * 
+	 * @param msg
+	 *            references the slot to return.
+	 * @throws IllegalStateException
+	 *             if the slot has already been returned.
+	 */
+	protected synchronized void release(PooledMessage msg)
+	{
+		if (!msg.isInUse())
+		{
+			throw new IllegalStateException("Pooled message "
+					+ msg.getSlot() + " has already been released!");
+		}
+		msg.setInUse(false);
+		this.free[this.freeCount++] = msg.getSlot();
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes up threads waiting for receive events of a {@link Channel}. Every
+ * event increments a sequence number, so a waiting thread takes the sequence
+ * number before it looks for messages and doesn't miss an event arriving in
+ * between. Signals can be chained, e. g. to wake up a {@link ChannelSelector}
+ * on the receive events of all its channels.
+ * 
+ * @author gabriel
+ */
+class ReceiveSignal
+{
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = this.lock.newCondition();
+	private volatile long sequence = 0;
+	private final CopyOnWriteArrayList<ReceiveSignal> chained = new CopyOnWriteArrayList<ReceiveSignal>();
+
+	/**
+	 * @return the current sequence number.
+	 */
+	protected long getSequence()
+	{
+		return this.sequence;
+	}
+
+	/**
+	 * Signals a receive event and wakes up all waiting threads, also of the
+	 * chained signals.
+	 */
+	protected void signal()
+	{
+		this.lock.lock();
+		try
+		{
+			this.sequence++;
+			this.changed.signalAll();
+		} finally
+		{
+			this.lock.unlock();
+		}
+		for (ReceiveSignal signal : this.chained)
+		{
+			signal.signal();
+		}
+	}
+
+	/**
+	 * Chains a signal to this signal.
+	 * 
+	 * @param signal
+	 *            references the signal to signal with this signal.
+	 */
+	protected void chain(ReceiveSignal signal)
+	{
+		this.chained.addIfAbsent(signal);
+	}
+
+	/**
+	 * Removes a chained signal from this signal.
+	 * 
+	 * @param signal
+	 *            references the signal not to signal any more.
+	 */
+	protected void unchain(ReceiveSignal signal)
+	{
+		this.chained.remove(signal);
+	}
+
+	/**
+	 * Waits until an event was signalled after the sequence number was taken.
+	 * 
+	 * @param sequence
+	 *            contains the sequence number taken before.
+	 * @param timeout
+	 *            contains the maximum time to wait.
+	 * @param unit
+	 *            contains the unit of timeout.
+	 * @return true if an event was signalled, false if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             if the waiting thread was interrupted.
+	 */
+	protected boolean await(long sequence, long timeout, TimeUnit unit)
+			throws InterruptedException
+	{
+		long nanos = unit.toNanos(timeout);
+		this.lock.lockInterruptibly();
+		try
+		{
+			while (sequence == this.sequence)
+			{
+				if (nanos <= 0)
+				{
+					return false;
+				}
+				nanos = this.changed.awaitNanos(nanos);
+			}
+			return true;
+		} finally
+		{
+			this.lock.unlock();
+		}
+	}
+}
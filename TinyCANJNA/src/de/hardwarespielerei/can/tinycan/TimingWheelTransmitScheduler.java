@@ -0,0 +1,570 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends many periodic messages on a {@link Channel} with a hashed timing
+ * wheel. Time is divided into ticks; the wheel has a power of two number of
+ * buckets, each holding a doubly linked list of the messages due in ticks
+ * mapping to it, together with the number of turns of the wheel until they
+ * are due. Scheduling and cancelling a message take constant time and don't
+ * allocate anything beyond the message itself.
+ * 
+ * A single timer thread advances the wheel. All messages due in a tick are
+ * written with a single native call. Messages are sent at a fixed rate, each
+ * deadline is the previous one plus the period, so rounding to ticks doesn't
+ * add up. If the timer thread falls behind, the missed ticks are caught up
+ * right away.
+ * 
+ * Temporary errors, e. g. a full transmit FIFO, count as missed
+ * transmissions, which are sent again next period. Other errors, e. g. after
+ * the channel has been closed, stop the scheduler, see {@link #getFailure()}.
+ * 
+ * @author gabriel
+ * @see PeriodicTransmission
+ */
+public class TimingWheelTransmitScheduler
+{
+	/**
+	 * Default duration of a tick, 1 millisecond.
+	 */
+	public static final long DEFAULT_TICK_NANOS = 1000000;
+
+	/**
+	 * Default number of buckets of the wheel.
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private class Timer extends Thread
+	{
+		private Timer(String name)
+		{
+			super(name);
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			TimingWheelTransmitScheduler scheduler = TimingWheelTransmitScheduler.this;
+			while (scheduler.running)
+			{
+				if (0 == scheduler.size())
+				{
+					// nothing to send, wait for a message to be scheduled
+					LockSupport.park(scheduler);
+					continue;
+				}
+				long deadline = scheduler.nextDeadline();
+				long now = System.nanoTime();
+				if (now < deadline)
+				{
+					LockSupport.parkNanos(scheduler, deadline - now);
+					continue;
+				}
+				if (now - deadline >= scheduler.tickNanos)
+				{
+					scheduler.lateTickCount++;
+				}
+				scheduler.advance();
+				try
+				{
+					scheduler.send();
+				} catch (TinyCANException e)
+				{
+					scheduler.fail(e);
+				}
+			}
+		}
+	}
+
+	private final Channel channel;
+	private final long tickNanos;
+	private final int mask;
+	private final int shift;
+	private final PeriodicTransmission[] buckets;
+	private final long startNanos;
+	private long tick;
+	private int count;
+
+	private PeriodicTransmission[] due;
+	private long[] dueDeadlines;
+	private long[] dueHeaders;
+	private long[] duePayloads;
+	private int dueCount;
+
+	private volatile long lateTickCount;
+	private volatile long errorCount;
+	private volatile TinyCANException failure;
+	private final Timer timer;
+	private volatile boolean running;
+
+	/**
+	 * Constructs a scheduler with {@link #DEFAULT_WHEEL_SIZE} buckets of
+	 * {@link #DEFAULT_TICK_NANOS} nanoseconds and starts its timer thread.
+	 * 
+	 * @param channel
+	 *            references the channel to send the messages on.
+	 */
+	public TimingWheelTransmitScheduler(Channel channel)
+	{
+		this(channel, DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS,
+				DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Constructs a scheduler and starts its timer thread. Periods are rounded
+	 * to whole ticks; periods up to the number of buckets times the tick are
+	 * handled within a single turn of the wheel.
+	 * 
+	 * @param channel
+	 *            references the channel to send the messages on.
+	 * @param tick
+	 *            contains the duration of a tick.
+	 * @param unit
+	 *            references the unit of the tick.
+	 * @param wheelSize
+	 *            contains the number of buckets, a power of two.
+	 * @throws IllegalArgumentException
+	 *             if the tick isn't positive or the number of buckets isn't a
+	 *             power of two.
+	 */
+	public TimingWheelTransmitScheduler(Channel channel, long tick,
+			TimeUnit unit, int wheelSize)
+	{
+		if (unit.toNanos(tick) <= 0)
+		{
+			throw new IllegalArgumentException("Invalid tick " + tick + " "
+					+ unit + "!");
+		}
+		if (wheelSize <= 0 || 0 != (wheelSize & (wheelSize - 1)))
+		{
+			throw new IllegalArgumentException("Invalid wheel size "
+					+ wheelSize + "!");
+		}
+		this.channel = channel;
+		this.tickNanos = unit.toNanos(tick);
+		this.mask = wheelSize - 1;
+		this.shift = Integer.numberOfTrailingZeros(wheelSize);
+		this.buckets = new PeriodicTransmission[wheelSize];
+		this.startNanos = System.nanoTime();
+		this.tick = 0;
+		this.count = 0;
+		this.due = new PeriodicTransmission[16];
+		this.dueDeadlines = new long[16];
+		this.dueHeaders = new long[16];
+		this.duePayloads = new long[16];
+		this.dueCount = 0;
+		this.lateTickCount = 0;
+		this.errorCount = 0;
+		this.failure = null;
+		this.running = true;
+		this.timer = new Timer("Timing wheel transmit scheduler of "
+				+ channel);
+		this.timer.start();
+	}
+
+	/**
+	 * Starts sending a message periodically, the first time with the next
+	 * tick.
+	 * 
+	 * @param msg
+	 *            references the message.
+	 * @param period
+	 *            contains the period.
+	 * @param unit
+	 *            references the unit of the period.
+	 * @return the periodic message, e. g. to update its payload or to cancel
+	 *         it.
+	 * @throws IllegalArgumentException
+	 *             if the period isn't positive.
+	 * @throws IllegalStateException
+	 *             if the scheduler has been closed or stopped by an error.
+	 */
+	public PeriodicTransmission schedule(CANMessage msg, long period,
+			TimeUnit unit)
+	{
+		return this.schedule(msg, 0, period, unit);
+	}
+
+	/**
+	 * Starts sending a message periodically. Different initial delays spread
+	 * messages with the same period over the ticks.
+	 * 
+	 * @param msg
+	 *            references the message.
+	 * @param initialDelay
+	 *            contains the time until the message is sent the first time.
+	 * @param period
+	 *            contains the period.
+	 * @param unit
+	 *            references the unit of the initial delay and the period.
+	 * @return the periodic message, e. g. to update its payload or to cancel
+	 *         it.
+	 * @throws IllegalArgumentException
+	 *             if the initial delay is negative or the period isn't
+	 *             positive.
+	 * @throws IllegalStateException
+	 *             if the scheduler has been closed or stopped by an error.
+	 */
+	public PeriodicTransmission schedule(CANMessage msg, long initialDelay,
+			long period, TimeUnit unit)
+	{
+		long periodNanos = unit.toNanos(period);
+		if (0 > initialDelay || periodNanos <= 0)
+		{
+			throw new IllegalArgumentException("Invalid delay "
+					+ initialDelay + " or period " + period + " " + unit
+					+ "!");
+		}
+		PeriodicTransmission transmission = new PeriodicTransmission(this,
+				CompactMessage.header(msg.getId(), Messages.flagsOf(msg)),
+				Messages.payloadOf(msg), periodNanos, System.nanoTime()
+						+ unit.toNanos(initialDelay));
+		synchronized (this)
+		{
+			if (!this.running)
+			{
+				throw new IllegalStateException("Scheduler of "
+						+ this.channel + " has been "
+						+ (null == this.failure ? "closed" : "stopped") + "!",
+						this.failure);
+			}
+			if (0 == this.count)
+			{
+				// the wheel stood still, continue with the current time
+				this.tick = Math.max(this.tick, this.tickOf(System.nanoTime()));
+			}
+			this.insert(transmission);
+			this.count++;
+		}
+		LockSupport.unpark(this.timer);
+		return transmission;
+	}
+
+	/**
+	 * Stops sending a periodic message.
+	 * 
+	 * @param transmission
+	 *            references the periodic message.
+	 */
+	protected synchronized void cancel(PeriodicTransmission transmission)
+	{
+		if (transmission.isCancelled())
+		{
+			return;
+		}
+		transmission.setCancelled();
+		if (-1 != transmission.getBucket())
+		{
+			this.unlink(transmission);
+			this.count--;
+		}
+	}
+
+	/**
+	 * @return the number of periodic messages.
+	 */
+	public synchronized int size()
+	{
+		return this.count;
+	}
+
+	/**
+	 * @param unit
+	 *            references the unit of the result.
+	 * @return the duration of a tick.
+	 */
+	public long getTick(TimeUnit unit)
+	{
+		return unit.convert(this.tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of buckets of the wheel.
+	 */
+	public int getWheelSize()
+	{
+		return this.buckets.length;
+	}
+
+	/**
+	 * @return the number of ticks processed more than a tick late, e. g.
+	 *         because the timer thread wasn't scheduled in time.
+	 */
+	public long getLateTickCount()
+	{
+		return this.lateTickCount;
+	}
+
+	/**
+	 * @return the number of temporary errors, e. g. a full transmit FIFO,
+	 *         which made messages miss a period.
+	 */
+	public long getErrorCount()
+	{
+		return this.errorCount;
+	}
+
+	/**
+	 * @return the error which stopped the scheduler, null if it is running or
+	 *         has been stopped by {@link #close()}.
+	 */
+	public TinyCANException getFailure()
+	{
+		return this.failure;
+	}
+
+	/**
+	 * Stops sending all periodic messages and waits for the timer thread to
+	 * terminate.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void close() throws InterruptedException
+	{
+		this.stop();
+		LockSupport.unpark(this.timer);
+		this.timer.join();
+	}
+
+	/**
+	 * Stops the scheduler after an error. Called by the timer thread only.
+	 * 
+	 * @param e
+	 *            references the error.
+	 */
+	private void fail(TinyCANException e)
+	{
+		this.failure = e;
+		this.stop();
+	}
+
+	/**
+	 * Stops the timer thread and cancels all periodic messages.
+	 */
+	private synchronized void stop()
+	{
+		this.running = false;
+		for (int i = 0; i < this.buckets.length; i++)
+		{
+			while (null != this.buckets[i])
+			{
+				PeriodicTransmission transmission = this.buckets[i];
+				transmission.setCancelled();
+				this.unlink(transmission);
+			}
+		}
+		this.count = 0;
+	}
+
+	/**
+	 * @return the time the current tick starts, see {@link System#nanoTime()}.
+	 */
+	private synchronized long nextDeadline()
+	{
+		return this.startNanos + this.tick * this.tickNanos;
+	}
+
+	/**
+	 * @param nanos
+	 *            contains a time, see {@link System#nanoTime()}.
+	 * @return the first tick at or after the time.
+	 */
+	private long tickOf(long nanos)
+	{
+		long elapsed = nanos - this.startNanos;
+		return 0 >= elapsed ? 0 : (elapsed + this.tickNanos - 1)
+				/ this.tickNanos;
+	}
+
+	/**
+	 * Puts a message into the bucket of the tick it is due in, the next tick
+	 * at the earliest. The caller has to hold the lock.
+	 * 
+	 * @param transmission
+	 *            references the periodic message.
+	 */
+	private void insert(PeriodicTransmission transmission)
+	{
+		long due = Math.max(this.tick,
+				this.tickOf(transmission.getDeadlineNanos()));
+		int bucket = (int) (due & this.mask);
+		transmission.setRounds((due - this.tick) >>> this.shift);
+		transmission.setBucket(bucket);
+		transmission.setPrevious(null);
+		transmission.setNext(this.buckets[bucket]);
+		if (null != this.buckets[bucket])
+		{
+			this.buckets[bucket].setPrevious(transmission);
+		}
+		this.buckets[bucket] = transmission;
+	}
+
+	/**
+	 * Removes a message from its bucket. The caller has to hold the lock.
+	 * 
+	 * @param transmission
+	 *            references the periodic message.
+	 */
+	private void unlink(PeriodicTransmission transmission)
+	{
+		PeriodicTransmission previous = transmission.getPrevious();
+		PeriodicTransmission next = transmission.getNext();
+		if (null == previous)
+		{
+			this.buckets[transmission.getBucket()] = next;
+		} else
+		{
+			previous.setNext(next);
+		}
+		if (null != next)
+		{
+			next.setPrevious(previous);
+		}
+		transmission.setPrevious(null);
+		transmission.setNext(null);
+		transmission.setBucket(-1);
+	}
+
+	/**
+	 * Takes the messages due in the current tick from the wheel, schedules
+	 * their next transmission and moves on to the next tick. Called by the
+	 * timer thread only.
+	 */
+	private synchronized void advance()
+	{
+		int bucket = (int) (this.tick & this.mask);
+		PeriodicTransmission transmission = this.buckets[bucket];
+		while (null != transmission)
+		{
+			PeriodicTransmission next = transmission.getNext();
+			if (0 == transmission.getRounds())
+			{
+				this.unlink(transmission);
+				this.addDue(transmission);
+			} else
+			{
+				transmission.setRounds(transmission.getRounds() - 1);
+			}
+			transmission = next;
+		}
+		this.tick++;
+		for (int i = 0; i < this.dueCount; i++)
+		{
+			transmission = this.due[i];
+			transmission.setDeadlineNanos(transmission.getDeadlineNanos()
+					+ transmission.getPeriodNanos());
+			this.insert(transmission);
+		}
+	}
+
+	private void addDue(PeriodicTransmission transmission)
+	{
+		if (this.dueCount == this.due.length)
+		{
+			int size = this.dueCount << 1;
+			PeriodicTransmission[] due = new PeriodicTransmission[size];
+			System.arraycopy(this.due, 0, due, 0, this.dueCount);
+			this.due = due;
+			long[] deadlines = new long[size];
+			System.arraycopy(this.dueDeadlines, 0, deadlines, 0,
+					this.dueCount);
+			this.dueDeadlines = deadlines;
+			this.dueHeaders = new long[size];
+			this.duePayloads = new long[size];
+		}
+		this.due[this.dueCount] = transmission;
+		this.dueDeadlines[this.dueCount] = transmission.getDeadlineNanos();
+		this.dueCount++;
+	}
+
+	/**
+	 * Writes due messages to the channel. Called by the timer thread only.
+	 * 
+	 * @param headers
+	 *            references the packed headers of the messages.
+	 * @param payloads
+	 *            references the packed payloads of the messages.
+	 * @param len
+	 *            contains the number of messages to write.
+	 * @return the number of messages accepted by the driver's transmit FIFO.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	protected int write(long[] headers, long[] payloads, int len)
+			throws TinyCANException
+	{
+		return this.channel.write(headers, payloads, len);
+	}
+
+	/**
+	 * Writes the messages taken from the wheel with a single native call and
+	 * records their jitter. Called by the timer thread only.
+	 * 
+	 * @throws TinyCANException
+	 *             on errors other than temporary ones.
+	 */
+	private void send() throws TinyCANException
+	{
+		int cnt = this.dueCount;
+		if (0 == cnt)
+		{
+			return;
+		}
+		for (int i = 0; i < cnt; i++)
+		{
+			this.dueHeaders[i] = this.due[i].getHeader();
+			this.duePayloads[i] = this.due[i].getPayload();
+		}
+		long now = System.nanoTime();
+		int accepted;
+		try
+		{
+			accepted = this.write(this.dueHeaders, this.duePayloads, cnt);
+		} catch (TinyCANException e)
+		{
+			if (!e.isTransient())
+			{
+				this.dueCount = 0;
+				Arrays.fill(this.due, 0, cnt, null);
+				throw e;
+			}
+			// count as missed, send again next period...
+			this.errorCount++;
+			accepted = 0;
+		}
+		for (int i = 0; i < cnt; i++)
+		{
+			this.due[i].record(now - this.dueDeadlines[i], i < accepted);
+			this.due[i] = null;
+		}
+		this.dueCount = 0;
+	}
+}
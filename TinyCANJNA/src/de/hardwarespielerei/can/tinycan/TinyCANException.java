@@ -39,6 +39,22 @@ public class TinyCANException extends java.lang.Exception
 	 */
 	private static final long serialVersionUID = 5376569765457518837L;
 
+	private static final TinyCANException FIFO_WRITE_ERROR = new FIFOWriteException(
+			NativeAccess.ERROR_FIFO_WRITE, "Error while writing to FIFO!",
+			false);
+
+	private static final TinyCANException BUFFER_WRITE_ERROR = new BufferWriteException(
+			NativeAccess.ERROR_BUFFER_WRITE, "Error while writing to buffer!",
+			false);
+
+	private static final TinyCANException FIFO_READ_ERROR = new FIFOReadException(
+			NativeAccess.ERROR_FIFO_READ, "Error while reading from FIFO!",
+			false);
+
+	private static final TinyCANException BUFFER_READ_ERROR = new BufferReadException(
+			NativeAccess.ERROR_BUFFER_READ,
+			"Error while reading from buffer!", false);
+
 	/**
 	 * @param returnCode
 	 *            contains the native return code.
@@ -51,6 +67,24 @@ public class TinyCANException extends java.lang.Exception
 		super(message + " RC = " + returnCode);
 	}
 
+	/**
+	 * @param returnCode
+	 *            contains the native return code.
+	 * @param message
+	 *            references the detail message. The detail message is saved for
+	 *            later retrieval by the {@link Throwable#getMessage()} method.
+	 * @param writableStackTrace
+	 *            has to be false for preallocated exceptions which are thrown
+	 *            repeatedly. Neither a stack trace nor suppressed exceptions are
+	 *            recorded then.
+	 */
+	protected TinyCANException(int returnCode, String message,
+			boolean writableStackTrace)
+	{
+		super(message + " RC = " + returnCode, null, writableStackTrace,
+				writableStackTrace);
+	}
+
 	/**
 	 * Throws the Tiny-CAN exception corresponding to the given native return
 	 * code. Returns without any effect on {@link NativeAccess#ERROR_OK} return
@@ -129,4 +163,52 @@ public class TinyCANException extends java.lang.Exception
 				throw new TinyCANException(rc, message);
 		}
 	}
+
+	/**
+	 * @return true if this error reports a temporary condition, e. g. a full
+	 *         transmit FIFO or an empty receive FIFO, so trying again later may
+	 *         succeed, false otherwise.
+	 */
+	protected boolean isTransient()
+	{
+		return this instanceof FIFOWriteException
+				|| this instanceof FIFOReadException
+				|| this instanceof BufferWriteException
+				|| this instanceof BufferReadException
+				|| this instanceof NoMessageException
+				|| this instanceof MainThreadBusyException;
+	}
+
+	/**
+	 * Hot path variant of {@link #throwOnErrorCode(int, String)}. FIFO and
+	 * buffer errors, which are expected on busy buses, are reported by
+	 * preallocated exceptions without stack trace and with a generic detail
+	 * message, so reporting them is cheap. All other errors are reported like
+	 * {@link #throwOnErrorCode(int, String)} does.
+	 * 
+	 * @param rc
+	 *            contains the native return code.
+	 * @param message
+	 *            references the detail message for errors which are not
+	 *            reported by preallocated exceptions.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 */
+	protected static void throwOnHotPathErrorCode(int rc, String message)
+			throws TinyCANException
+	{
+		switch (rc)
+		{
+			case NativeAccess.ERROR_FIFO_WRITE:
+				throw FIFO_WRITE_ERROR;
+			case NativeAccess.ERROR_BUFFER_WRITE:
+				throw BUFFER_WRITE_ERROR;
+			case NativeAccess.ERROR_FIFO_READ:
+				throw FIFO_READ_ERROR;
+			case NativeAccess.ERROR_BUFFER_READ:
+				throw BUFFER_READ_ERROR;
+			default:
+				throwOnErrorCode(rc, message);
+		}
+	}
 }
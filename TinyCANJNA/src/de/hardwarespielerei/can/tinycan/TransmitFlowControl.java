@@ -0,0 +1,214 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flow control of the driver's transmit FIFO of a {@link Channel}. Writers
+ * are held back while the FIFO is filled up to the high water mark and resume
+ * once it has drained to the low water mark, so the FIFO never overflows and
+ * the bus is kept busy without retrying rejected frames.
+ * 
+ * The fill level isn't read for every frame. The flow control keeps an
+ * estimate, the last level read plus the frames written since, which never
+ * falls below the actual level as the FIFO only drains on its own. The level
+ * is only read from the driver when the estimate reaches the high water mark.
+ * 
+ * Writers wait on the flow control itself, not on the transmit lock of the
+ * channel, so writes without flow control, e. g. of a
+ * {@link TimingWheelTransmitScheduler}, aren't held up by a full FIFO. The
+ * frames a writer may write are added to the estimate right away, so
+ * concurrent writers don't overfill the FIFO.
+ * 
+ * @author gabriel
+ * @see Channel#setTransmitFlowControl(int, int)
+ * @see Channel#writeFlowControlled(CANMessage[], int, int)
+ */
+public class TransmitFlowControl
+{
+	/**
+	 * Default size of the driver's transmit FIFO.
+	 */
+	public static final int DEFAULT_FIFO_SIZE = 255;
+
+	/**
+	 * Default high water mark, three quarters of the default FIFO size.
+	 */
+	public static final int DEFAULT_HIGH_WATER_MARK = DEFAULT_FIFO_SIZE * 3 / 4;
+
+	/**
+	 * Default low water mark, a quarter of the default FIFO size.
+	 */
+	public static final int DEFAULT_LOW_WATER_MARK = DEFAULT_FIFO_SIZE / 4;
+
+	private final int lowWaterMark;
+	private final int highWaterMark;
+	private final IdleStrategy idleStrategy;
+	private int level;
+	private volatile long sampleCount;
+	private volatile long blockCount;
+
+	/**
+	 * Constructs a flow control which waits for the FIFO to drain by parking
+	 * for 50 microseconds up to 1 millisecond.
+	 * 
+	 * @param lowWaterMark
+	 *            contains the fill level writers resume at.
+	 * @param highWaterMark
+	 *            contains the fill level writers are held back at.
+	 * @throws IllegalArgumentException
+	 *             if the low water mark is negative or not below the high
+	 *             water mark.
+	 */
+	protected TransmitFlowControl(int lowWaterMark, int highWaterMark)
+	{
+		if (0 > lowWaterMark || lowWaterMark >= highWaterMark)
+		{
+			throw new IllegalArgumentException("Invalid water marks "
+					+ lowWaterMark + " and " + highWaterMark + "!");
+		}
+		this.lowWaterMark = lowWaterMark;
+		this.highWaterMark = highWaterMark;
+		this.idleStrategy = new BackoffIdleStrategy(0, 0,
+				TimeUnit.MICROSECONDS.toNanos(50),
+				TimeUnit.MILLISECONDS.toNanos(1));
+		// unknown, read on first use
+		this.level = highWaterMark;
+		this.sampleCount = 0;
+		this.blockCount = 0;
+	}
+
+	/**
+	 * Waits until frames may be written and reserves them. The caller must not
+	 * hold the transmit lock of the channel and has to call
+	 * {@link #written(int, int)} after writing.
+	 * 
+	 * @param index
+	 *            contains the index of the channel.
+	 * @param max
+	 *            contains the number of frames to write.
+	 * @return the number of frames which may be written now, between 1 and
+	 *         max.
+	 * @throws TinyCANException
+	 *             on errors while accessing Tiny-CAN.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	protected synchronized int acquire(int index, int max)
+			throws TinyCANException, InterruptedException
+	{
+		if (this.level >= this.highWaterMark)
+		{
+			this.level = this.sample(index);
+			if (this.level >= this.highWaterMark)
+			{
+				this.blockCount++;
+				this.idleStrategy.reset();
+				do
+				{
+					if (Thread.interrupted())
+					{
+						throw new InterruptedException();
+					}
+					this.idleStrategy.idle();
+					this.level = this.sample(index);
+				} while (this.level > this.lowWaterMark);
+			}
+		}
+		int count = Math.min(max, this.highWaterMark - this.level);
+		this.level += count;
+		return count;
+	}
+
+	/**
+	 * Accounts frames written, which have been reserved by
+	 * {@link #acquire(int, int)} before.
+	 * 
+	 * @param requested
+	 *            contains the number of frames passed to the driver.
+	 * @param accepted
+	 *            contains the number of frames the driver accepted.
+	 */
+	protected synchronized void written(int requested, int accepted)
+	{
+		if (accepted < requested)
+		{
+			// FIFO full after all, e. g. written without flow control
+			this.level = this.highWaterMark;
+		}
+	}
+
+	private int sample(int index) throws TinyCANException
+	{
+		int cnt = Library.transmitGetCount(index);
+		if (0 > cnt)
+		{
+			TinyCANException.throwOnHotPathErrorCode(cnt,
+					"Can't read transmit FIFO level!");
+		}
+		this.sampleCount++;
+		return cnt;
+	}
+
+	/**
+	 * @return the fill level writers resume at.
+	 */
+	public int getLowWaterMark()
+	{
+		return this.lowWaterMark;
+	}
+
+	/**
+	 * @return the fill level writers are held back at.
+	 */
+	public int getHighWaterMark()
+	{
+		return this.highWaterMark;
+	}
+
+	/**
+	 * @return how often the fill level has been read from the driver.
+	 */
+	public long getSampleCount()
+	{
+		return this.sampleCount;
+	}
+
+	/**
+	 * @return how often writers have been held back.
+	 */
+	public long getBlockCount()
+	{
+		return this.blockCount;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Transmit flow control " + this.lowWaterMark + "/"
+				+ this.highWaterMark + " (" + this.sampleCount + " samples, "
+				+ this.blockCount + " blocks)";
+	}
+}
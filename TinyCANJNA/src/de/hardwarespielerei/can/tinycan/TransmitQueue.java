@@ -0,0 +1,359 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous transmit queue of a {@link Channel}. Any number of threads may
+ * submit messages without blocking, a dedicated transmit thread drains the
+ * queue and passes the messages to the driver in batches of up to
+ * {@value #BATCH_SIZE} frames per native call.
+ * 
+ * The frames are written under the {@link TransmitFlowControl} of the channel,
+ * so they are only passed to the driver if its transmit FIFO has room for
+ * them. Frames are never dropped; if the bus can't keep up, the queue grows.
+ * 
+ * Each submitted message gets a future, which is completed with the message
+ * once the driver accepted it, or with the echo of the message if the queue
+ * completes on echo. Futures are completed on the transmit thread, so
+ * dependent actions doing more than a little work should use the async
+ * variants of {@link CompletableFuture}.
+ * 
+ * @author gabriel
+ * @see Channel#writeAsync(CANMessage)
+ * @see Channel#startTransmitQueue(boolean)
+ */
+public class TransmitQueue implements ReceiveCallback
+{
+	/**
+	 * Maximum number of frames passed to the driver with a single call.
+	 */
+	public static final int BATCH_SIZE = 64;
+
+	private static final class Entry
+	{
+		private final CANMessage msg;
+		private final CompletableFuture<CANMessage> future;
+
+		private Entry(CANMessage msg)
+		{
+			this.msg = msg;
+			this.future = new CompletableFuture<CANMessage>();
+		}
+	}
+
+	private class Transmitter extends Thread
+	{
+		private volatile boolean waiting;
+
+		private Transmitter(String name)
+		{
+			super(name);
+			this.setDaemon(true);
+			this.waiting = false;
+		}
+
+		@Override
+		public void run()
+		{
+			while (TransmitQueue.this.running)
+			{
+				TransmitQueue.this.transmit();
+				if (0 == TransmitQueue.this.batchCount)
+				{
+					this.waiting = true;
+					if (TransmitQueue.this.queue.isEmpty()
+							&& TransmitQueue.this.running)
+					{
+						LockSupport.park(TransmitQueue.this);
+					}
+					this.waiting = false;
+				}
+			}
+			TransmitQueue.this.close();
+		}
+	}
+
+	private final Channel channel;
+	private final boolean completeOnEcho;
+	private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+	private final ConcurrentLinkedQueue<Entry> echoes = new ConcurrentLinkedQueue<Entry>();
+	private final Entry[] batch = new Entry[BATCH_SIZE];
+	private final CANMessage[] frames = new CANMessage[BATCH_SIZE];
+	private int batchCount;
+	private final Transmitter transmitter;
+	private volatile boolean running;
+
+	/**
+	 * Constructs a transmit queue and starts its transmit thread.
+	 * 
+	 * @param channel
+	 *            references the channel to write to.
+	 * @param completeOnEcho
+	 *            is true to complete the futures on the echo of the
+	 *            transmitted frames, false to complete them as soon as the
+	 *            driver accepted the frames.
+	 */
+	protected TransmitQueue(Channel channel, boolean completeOnEcho)
+	{
+		this.channel = channel;
+		this.completeOnEcho = completeOnEcho;
+		this.batchCount = 0;
+		this.running = true;
+		this.transmitter = new Transmitter("Transmit queue of " + channel);
+		this.transmitter.start();
+	}
+
+	/**
+	 * Queues a message for transmission.
+	 * 
+	 * @param msg
+	 *            references the message.
+	 * @return a future completed with the message once the driver accepted
+	 *         it, or with its echo if this queue completes on echo. The future
+	 *         is completed exceptionally if writing the message failed or the
+	 *         queue has been closed.
+	 */
+	public CompletableFuture<CANMessage> submit(CANMessage msg)
+	{
+		Entry entry = new Entry(msg);
+		this.queue.offer(entry);
+		if (!this.running)
+		{
+			// closed concurrently, the transmit thread may be gone already
+			this.fail(new IllegalStateException("Transmit queue of "
+					+ this.channel + " has been closed!"));
+		} else if (this.transmitter.waiting)
+		{
+			LockSupport.unpark(this.transmitter);
+		}
+		return entry.future;
+	}
+
+	/**
+	 * Passes a received frame to this queue. If this queue completes on echo
+	 * and the frame is the echo of a transmitted frame, the future of that
+	 * frame is completed with a copy of the echo. Futures of frames
+	 * transmitted before whose echo is missing are completed with their
+	 * message. Other frames are ignored, so this can be called for all
+	 * received frames, e. g. from a receive callback or an
+	 * {@link IdDispatchTable}.
+	 * 
+	 * The adapter has to be set up to report transmitted frames.
+	 * 
+	 * @param msg
+	 *            references the received frame.
+	 */
+	@Override
+	public void callback(CANMessage msg)
+	{
+		if (!this.completeOnEcho || !msg.isTransmitted())
+		{
+			return;
+		}
+		boolean found = false;
+		for (Iterator<Entry> it = this.echoes.iterator(); it.hasNext();)
+		{
+			Entry entry = it.next();
+			if (entry.msg.getId() == msg.getId()
+					&& entry.msg.isExtendedFrameFormat() == msg
+							.isExtendedFrameFormat())
+			{
+				found = true;
+				break;
+			}
+		}
+		if (!found)
+		{
+			// echo of a frame written without this queue
+			return;
+		}
+		Entry entry;
+		while (null != (entry = this.echoes.poll()))
+		{
+			if (entry.msg.getId() == msg.getId()
+					&& entry.msg.isExtendedFrameFormat() == msg
+							.isExtendedFrameFormat())
+			{
+				entry.future.complete(CompactMessage.of(msg));
+				break;
+			}
+			entry.future.complete(entry.msg);
+		}
+	}
+
+	/**
+	 * @return true if the futures are completed on the echo of the
+	 *         transmitted frames, false if they are completed as soon as the
+	 *         driver accepted the frames.
+	 */
+	public boolean isCompleteOnEcho()
+	{
+		return this.completeOnEcho;
+	}
+
+	/**
+	 * @return true if this queue hasn't been closed, false otherwise.
+	 */
+	public boolean isRunning()
+	{
+		return this.running;
+	}
+
+	/**
+	 * Passes the next batch of queued frames to the driver, as far as the
+	 * flow control of the channel permits. Frames not accepted stay in the
+	 * batch for the next call. Called by the transmit thread only.
+	 */
+	private void transmit()
+	{
+		while (this.batchCount < BATCH_SIZE)
+		{
+			Entry entry = this.queue.poll();
+			if (null == entry)
+			{
+				break;
+			}
+			this.frames[this.batchCount] = entry.msg;
+			this.batch[this.batchCount++] = entry;
+		}
+		if (0 == this.batchCount)
+		{
+			return;
+		}
+		int accepted;
+		try
+		{
+			accepted = this.channel.writeAvailable(this.frames, 0,
+					this.batchCount);
+		} catch (InterruptedException e)
+		{
+			// terminated, the batch is discarded on close
+			return;
+		} catch (TinyCANException e)
+		{
+			for (int i = 0; i < this.batchCount; i++)
+			{
+				this.batch[i].future.completeExceptionally(e);
+			}
+			this.remove(this.batchCount);
+			return;
+		}
+		for (int i = 0; i < accepted; i++)
+		{
+			Entry entry = this.batch[i];
+			if (this.completeOnEcho)
+			{
+				this.echoes.offer(entry);
+			} else
+			{
+				entry.future.complete(entry.msg);
+			}
+		}
+		this.remove(accepted);
+	}
+
+	/**
+	 * Removes the first frames from the batch.
+	 * 
+	 * @param count
+	 *            contains the number of frames to remove.
+	 */
+	private void remove(int count)
+	{
+		int remaining = this.batchCount - count;
+		System.arraycopy(this.batch, count, this.batch, 0, remaining);
+		System.arraycopy(this.frames, count, this.frames, 0, remaining);
+		for (int i = remaining; i < this.batchCount; i++)
+		{
+			this.batch[i] = null;
+			this.frames[i] = null;
+		}
+		this.batchCount = remaining;
+	}
+
+	/**
+	 * Completes the futures of all frames not transmitted yet exceptionally
+	 * and the futures of all frames still waiting for their echo with their
+	 * message. Called by the transmit thread only.
+	 */
+	private void close()
+	{
+		IllegalStateException cause = new IllegalStateException(
+				"Transmit queue of " + this.channel + " has been closed!");
+		for (int i = 0; i < this.batchCount; i++)
+		{
+			this.batch[i].future.completeExceptionally(cause);
+		}
+		this.remove(this.batchCount);
+		this.fail(cause);
+		Entry entry;
+		while (null != (entry = this.echoes.poll()))
+		{
+			entry.future.complete(entry.msg);
+		}
+	}
+
+	/**
+	 * Completes the futures of all frames not transmitted yet exceptionally.
+	 * 
+	 * @param cause
+	 *            references the exception to complete the futures with.
+	 */
+	private void fail(Exception cause)
+	{
+		Entry entry;
+		while (null != (entry = this.queue.poll()))
+		{
+			entry.future.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Stops the transmit thread without waiting for it. Frames not passed to
+	 * the driver yet are discarded and their futures are completed
+	 * exceptionally.
+	 */
+	protected void terminate()
+	{
+		this.running = false;
+		// wakes up the transmit thread waiting for the FIFO, too
+		this.transmitter.interrupt();
+	}
+
+	/**
+	 * Waits for the transmit thread to terminate.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	protected void join() throws InterruptedException
+	{
+		this.transmitter.join();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.hardwarespielerei.can.tinycan.jna;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Native access to the hot path functions of the Tiny-CAN DLL via JNA direct
+ * mapping. Direct mapped calls avoid the reflection based invocation of the
+ * {@link NativeAccess} interface proxy. Only primitive and {@link Pointer}
+ * arguments are used, so no conversion takes place on a call.
+ * 
+ * @author gabriel
+ */
+public final class DirectNativeAccess
+{
+	private DirectNativeAccess()
+	{
+		// static access only
+	}
+
+	/**
+	 * Binds the native methods of this class to the Tiny-CAN DLL.
+	 * 
+	 * @param libraryName
+	 *            references the name of the Tiny-CAN DLL.
+	 */
+	public static void register(String libraryName)
+	{
+		Native.register(DirectNativeAccess.class, libraryName);
+	}
+
+	/**
+	 * Releases the binding of the native methods of this class.
+	 */
+	public static void unregister()
+	{
+		Native.unregister(DirectNativeAccess.class);
+	}
+
+	// int32_t CanReceive(uint32_t index, struct TCanMsg *msg, int32_t count)
+	public static native int CanReceive(int index, Pointer msg, int count);
+
+	// uint32_t CanReceiveGetCount(uint32_t index)
+	public static native int CanReceiveGetCount(int index);
+
+	// int32_t CanTransmit(uint32_t index, struct TCanMsg *msg, int32_t count)
+	public static native int CanTransmit(int index, Pointer msg, int count);
+
+	// uint32_t CanTransmitGetCount(uint32_t index)
+	public static native int CanTransmitGetCount(int index);
+}
@@ -343,6 +343,85 @@ public interface NativeAccess extends Library
 
 	public static final short EVENT_DISABLE_ALL = (short) 0xFF00;
 
+	// Layout of struct TCanMsg
+
+	/**
+	 * Size of a native CAN frame (struct TCanMsg) in bytes.
+	 */
+	public static final int CAN_MSG_SIZE = 24;
+
+	/**
+	 * Offset of the message ID within a native CAN frame.
+	 */
+	public static final int CAN_MSG_ID_OFFSET = 0;
+
+	/**
+	 * Offset of the flags within a native CAN frame.
+	 */
+	public static final int CAN_MSG_FLAGS_OFFSET = 4;
+
+	/**
+	 * Offset of the eight data bytes within a native CAN frame.
+	 */
+	public static final int CAN_MSG_DATA_OFFSET = 8;
+
+	/**
+	 * Offset of the timestamp's seconds within a native CAN frame.
+	 */
+	public static final int CAN_MSG_SEC_OFFSET = 16;
+
+	/**
+	 * Offset of the timestamp's microseconds within a native CAN frame.
+	 */
+	public static final int CAN_MSG_USEC_OFFSET = 20;
+
+	// Bits of the flags of struct TCanMsg
+
+	/**
+	 * Mask of the frame size within the flags of a native CAN frame.
+	 */
+	public static final int CAN_MSG_FLAG_LENGTH_MASK = 0x0F;
+
+	/**
+	 * Flag of a native CAN frame which has been transmitted.
+	 */
+	public static final int CAN_MSG_FLAG_TXD = 0x10;
+
+	/**
+	 * Reserved flag of a native CAN frame.
+	 */
+	public static final int CAN_MSG_FLAG_RESERVED = 0x20;
+
+	/**
+	 * Flag of a native Remote Transmition Request frame.
+	 */
+	public static final int CAN_MSG_FLAG_RTR = 0x40;
+
+	/**
+	 * Flag of a native frame with Extended Frame Format (29 Bit Id's).
+	 */
+	public static final int CAN_MSG_FLAG_EFF = 0x80;
+
+	/**
+	 * Shift of the source (device) within the flags of a native CAN frame.
+	 */
+	public static final int CAN_MSG_FLAG_SOURCE_SHIFT = 8;
+
+	// commands of CanTransmitSet for the transmit buffers of an adapter, the
+	// bits are assumed and have to be verified against the driver
+
+	/**
+	 * Transmit buffer command switching the interval timer of the buffer on,
+	 * without it the timer is switched off.
+	 */
+	public static final short TX_CMD_TIMER_ON = 0x0001;
+
+	/**
+	 * Transmit buffer command setting the interval time of the buffer, in
+	 * microseconds.
+	 */
+	public static final short TX_CMD_SET_TIME = (short) 0x8000;
+
 	public class Time extends Structure
 	{
 		// uint32_t Sec;
@@ -439,12 +518,20 @@ public interface NativeAccess extends Library
 	// int32_t CanReceive(uint32_t index, struct TCanMsg *msg, int32_t count)
 	public int CanReceive(int index, CANMsg[] msg, int count);
 
+	// int32_t CanReceive(uint32_t index, struct TCanMsg *msg, int32_t count)
+	// msg points to a contiguous buffer of at least count native CAN frames
+	public int CanReceive(int index, Pointer msg, int count);
+
 	// uint32_t CanReceiveGetCount(uint32_t index)
 	public int CanReceiveGetCount(int index);
 
 	// int32_t CanTransmit(uint32_t index, struct TCanMsg *msg, int32_t count)
 	public int CanTransmit(int index, CANMsg[] msg, int count);
 
+	// int32_t CanTransmit(uint32_t index, struct TCanMsg *msg, int32_t count)
+	// msg points to a contiguous buffer of at least count native CAN frames
+	public int CanTransmit(int index, Pointer msg, int count);
+
 	// uint32_t CanTransmitGetCount(uint32_t index)
 	public int CanTransmitGetCount(int index);
 
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan.test;
+
+/**
+ * Minimal checks for the self-checking test programs of this package, which
+ * run without a test framework. Failed checks are reported on standard error
+ * and counted; {@link #report(String)} ends the program with exit code 1 if
+ * any check failed.
+ * 
+ * @author gabriel
+ */
+public final class Checks
+{
+	private static int checkCount = 0;
+	private static int failureCount = 0;
+
+	private Checks()
+	{
+		// static methods only
+	}
+
+	/**
+	 * @param condition
+	 *            has to be true.
+	 * @param what
+	 *            describes the check.
+	 */
+	public static void check(boolean condition, String what)
+	{
+		checkCount++;
+		if (!condition)
+		{
+			failureCount++;
+			System.err.println("FAILED: " + what);
+		}
+	}
+
+	/**
+	 * @param expected
+	 *            contains the expected value.
+	 * @param actual
+	 *            contains the actual value.
+	 * @param what
+	 *            describes the check.
+	 */
+	public static void checkEquals(long expected, long actual, String what)
+	{
+		check(expected == actual, what + " - expected " + expected
+				+ " but was " + actual);
+	}
+
+	/**
+	 * @param expected
+	 *            references the expected value, may be null.
+	 * @param actual
+	 *            references the actual value, may be null.
+	 * @param what
+	 *            describes the check.
+	 */
+	public static void checkEquals(Object expected, Object actual, String what)
+	{
+		check(null == expected ? null == actual : expected.equals(actual),
+				what + " - expected " + expected + " but was " + actual);
+	}
+
+	/**
+	 * Prints the result of all checks and ends the program with exit code 1
+	 * if any of them failed.
+	 * 
+	 * @param name
+	 *            contains the name of the test.
+	 */
+	public static void report(String name)
+	{
+		if (0 == failureCount)
+		{
+			System.out.println(name + ": all " + checkCount
+					+ " checks passed.");
+		} else
+		{
+			System.err.println(name + ": " + failureCount + " of "
+					+ checkCount + " checks failed!");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan.test;
+
+import static de.hardwarespielerei.can.tinycan.test.Checks.check;
+import static de.hardwarespielerei.can.tinycan.test.Checks.checkEquals;
+
+import java.text.ParseException;
+
+import de.hardwarespielerei.can.tinycan.CompactMessage;
+import de.hardwarespielerei.can.tinycan.FrameBuffer;
+import de.hardwarespielerei.can.tinycan.FramePredicate;
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+import de.hardwarespielerei.can.tinycan.util.FilterExpression;
+
+/**
+ * Checks parsing and evaluation of {@link FilterExpression}s without an
+ * adapter.
+ * 
+ * @author gabriel
+ */
+public class FilterExpressionTest
+{
+	private static final int STD_8 = 8;
+	private static final int EXT_8 = NativeAccess.CAN_MSG_FLAG_EFF | 8;
+
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            command line arguments, not used.
+	 * @throws ParseException
+	 *             if a valid expression is rejected.
+	 */
+	public static void main(String[] args) throws ParseException
+	{
+		fields();
+		operators();
+		precedence();
+		messages();
+		errors();
+		Checks.report("FilterExpressionTest");
+	}
+
+	private static void fields() throws ParseException
+	{
+		check(matches("id == 0x123", 0x123, STD_8, 0), "id");
+		check(!matches("id == 0x123", 0x124, STD_8, 0), "other id");
+		check(matches("len == 3", 1, 3, 0), "len");
+		check(matches("dlc == 3", 1, 3, 0), "dlc");
+		check(matches("ext", 1, EXT_8, 0), "ext set");
+		check(!matches("ext", 1, STD_8, 0), "ext clear");
+		check(matches("rtr", 1, NativeAccess.CAN_MSG_FLAG_RTR, 0), "rtr");
+		check(matches("txd", 1, NativeAccess.CAN_MSG_FLAG_TXD | 8, 0), "txd");
+		check(matches("source == 5", 1,
+				(5 << NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT) | 8, 0),
+				"source");
+		check(matches("data[0] == 0x11 && data[7] == 0xFF", 1, STD_8,
+				0xFF00000000000011L), "data bytes");
+		check(matches("data[7] > 0x7F", 1, STD_8, 0x8000000000000000L),
+				"data bytes are unsigned");
+		check(matches("payload == 0x0201", 1, 2, 0x0201L), "payload");
+	}
+
+	private static void operators() throws ParseException
+	{
+		check(matches("id in 0x100..0x1FF", 0x100, STD_8, 0), "range start");
+		check(matches("id in 0x100..0x1FF", 0x1FF, STD_8, 0), "range end");
+		check(!matches("id in 0x100..0x1FF", 0x200, STD_8, 0),
+				"beyond range");
+		check(matches("id == 0b101", 5, STD_8, 0), "binary number");
+		check(matches("id == 17", 0x11, STD_8, 0), "decimal number");
+		check(matches("(id + 1) * 2 - 4 == 2", 2, STD_8, 0), "arithmetic");
+		check(matches("id % 16 == 3 && id / 16 == 1", 0x13, STD_8, 0),
+				"division and remainder");
+		check(matches("id / 0 == 0", 1, STD_8, 0), "division by 0");
+		check(matches("(1 << 4 | 1) == 17 && (0x30 >> 4) == 3", 1, STD_8, 0),
+				"shifts");
+		check(matches("(id ^ 0xFF) == 0xF0", 0x0F, STD_8, 0), "xor");
+		check(matches("~0 == -1 && -id == -3", 3, STD_8, 0), "unary");
+		check(matches("!(id == 1)", 2, STD_8, 0), "not");
+		check(matches("id == 1 || id == 2", 2, STD_8, 0), "or");
+		check(!matches("id == 1 && id == 2", 2, STD_8, 0), "and");
+		check(matches("id != 1 && id < 3 && id <= 2 && id > 1 && id >= 2", 2,
+				STD_8, 0), "comparisons");
+	}
+
+	private static void precedence() throws ParseException
+	{
+		// bit operators bind stronger than comparisons, unlike in Java
+		check(matches("data[0] & 0x0F == 2", 1, STD_8, 0xF2L),
+				"masked comparison");
+		check(!matches("data[0] & 0x0F == 2", 1, STD_8, 0xF3L),
+				"masked comparison mismatch");
+		check(matches("data[0] & 0x80", 1, STD_8, 0x80L), "value as truth");
+		check(matches("id == 1 || id == 2 && len == 0", 1, STD_8, 0),
+				"and binds stronger than or");
+		check(matches("1 + 2 * 3 == 7", 1, STD_8, 0),
+				"multiplication binds stronger than addition");
+	}
+
+	private static void messages() throws ParseException
+	{
+		FramePredicate predicate = FilterExpression
+				.compile("id in 0x100..0x1FF && data[1] == 0x22 && !ext");
+		check(predicate.test(new CompactMessage(0x180, false, false,
+				(byte) 2, new byte[] { 0x11, 0x22 }, 0, 0)), "message");
+		check(!predicate.test(new CompactMessage(0x180, false, true,
+				(byte) 2, new byte[] { 0x11, 0x22 }, 0, 0)),
+				"extended message");
+		checkEquals("id in 0x100..0x1FF && data[1] == 0x22 && !ext",
+				predicate.toString(), "expression as string");
+
+		// bytes beyond the frame size read as 0 on every path
+		FramePredicate beyond = FilterExpression.compile("data[7] == 0");
+		long header = CompactMessage.header(0x180, 2);
+		long payload = 0xFF00000000002211L;
+		check(beyond.test(new CompactMessage(header, payload, 0)),
+				"byte beyond the frame size of a message");
+		FrameBuffer frames = new FrameBuffer();
+		frames.add(0x180, 2, payload, 0);
+		check(beyond.test(frames, 0),
+				"byte beyond the frame size of a captured frame");
+		check(!beyond.test(new CompactMessage(CompactMessage.header(0x180,
+				8), payload, 0)), "byte within the frame size");
+	}
+
+	private static void errors()
+	{
+		String[] invalid = { "", "id ==", "id == 1)", "(id == 1",
+				"data[8] == 0", "foo == 1", "id in 1", "id == 0x", "id @ 1" };
+		for (String expression : invalid)
+		{
+			try
+			{
+				FilterExpression.compile(expression);
+				check(false, "\"" + expression + "\" rejected");
+			} catch (ParseException e)
+			{
+				check(0 <= e.getErrorOffset()
+						&& e.getErrorOffset() <= expression.length(),
+						"error offset of \"" + expression + "\"");
+			}
+		}
+		try
+		{
+			FilterExpression.compile("id == 1 extra");
+			check(false, "trailing input rejected");
+		} catch (ParseException e)
+		{
+			checkEquals(8, e.getErrorOffset(), "offset of trailing input");
+		}
+	}
+
+	private static boolean matches(String expression, int id, int flags,
+			long payload) throws ParseException
+	{
+		return FilterExpression.compile(expression).test(id, flags, payload);
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan.test;
+
+import static de.hardwarespielerei.can.tinycan.test.Checks.check;
+import static de.hardwarespielerei.can.tinycan.test.Checks.checkEquals;
+
+import de.hardwarespielerei.can.tinycan.CANMessage;
+import de.hardwarespielerei.can.tinycan.CompactMessage;
+import de.hardwarespielerei.can.tinycan.IdDispatchTable;
+import de.hardwarespielerei.can.tinycan.ReceiveCallback;
+
+/**
+ * Checks registering handlers in and dispatching messages by an
+ * {@link IdDispatchTable} without an adapter. Many extended IDs are
+ * registered and removed again, which grows the hash map of extended IDs and
+ * moves colliding keys on removal.
+ * 
+ * @author gabriel
+ */
+public class IdDispatchTableTest
+{
+	private static class CountingHandler implements ReceiveCallback
+	{
+		private int count = 0;
+		private CANMessage last = null;
+
+		@Override
+		public void callback(CANMessage msg)
+		{
+			this.count++;
+			this.last = msg;
+		}
+	}
+
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            command line arguments, not used.
+	 */
+	public static void main(String[] args)
+	{
+		standard();
+		extended();
+		dispatch();
+		invalid();
+		Checks.report("IdDispatchTableTest");
+	}
+
+	private static void standard()
+	{
+		IdDispatchTable table = new IdDispatchTable();
+		CountingHandler handler = new CountingHandler();
+		CountingHandler range = new CountingHandler();
+		table.register(0x100, handler);
+		table.register(0x200, 0x2FF, range);
+		check(handler == table.getHandler(0x100, false), "standard handler");
+		check(null == table.getHandler(0x100, true),
+				"standard ID isn't extended");
+		check(range == table.getHandler(0x200, false), "range start");
+		check(range == table.getHandler(0x2FF, false), "range end");
+		check(null == table.getHandler(0x300, false), "beyond range");
+		table.register(0x100, null);
+		check(null == table.getHandler(0x100, false), "standard removed");
+		table.register(0x7FF, handler);
+		check(handler == table.getHandler(0x7FF, false), "last standard ID");
+	}
+
+	private static void extended()
+	{
+		IdDispatchTable table = new IdDispatchTable();
+		CountingHandler[] handlers = new CountingHandler[1000];
+		for (int i = 0; i < handlers.length; i++)
+		{
+			handlers[i] = new CountingHandler();
+			table.registerExtended(extendedId(i), handlers[i]);
+		}
+		boolean found = true;
+		for (int i = 0; i < handlers.length; i++)
+		{
+			found &= (handlers[i] == table.getHandler(extendedId(i), true));
+		}
+		check(found, "all extended handlers found");
+		check(null == table.getHandler(extendedId(0), false),
+				"extended ID isn't standard");
+		check(null == table.getHandler(0x1FFFFFFF, true),
+				"unregistered extended ID");
+
+		// removal has to keep the other keys of a probe sequence reachable
+		for (int i = 0; i < handlers.length; i += 2)
+		{
+			table.registerExtended(extendedId(i), null);
+		}
+		boolean removed = true;
+		boolean kept = true;
+		for (int i = 0; i < handlers.length; i++)
+		{
+			ReceiveCallback handler = table.getHandler(extendedId(i), true);
+			if (0 == i % 2)
+			{
+				removed &= (null == handler);
+			} else
+			{
+				kept &= (handlers[i] == handler);
+			}
+		}
+		check(removed, "removed extended handlers gone");
+		check(kept, "other extended handlers kept");
+
+		CountingHandler range = new CountingHandler();
+		table.registerExtended(0x18FEF000, 0x18FEF0FF, range);
+		check(range == table.getHandler(0x18FEF080, true), "extended range");
+		table.registerExtended(0x18FEF000, 0x18FEF0FF, null);
+		check(null == table.getHandler(0x18FEF080, true),
+				"extended range removed");
+	}
+
+	private static void dispatch()
+	{
+		IdDispatchTable table = new IdDispatchTable();
+		CountingHandler handler = new CountingHandler();
+		CountingHandler extended = new CountingHandler();
+		CountingHandler other = new CountingHandler();
+		table.register(0x123, handler);
+		table.registerExtended(0x123, extended);
+		CANMessage msg = message(0x123, false);
+		table.callback(msg);
+		checkEquals(1, handler.count, "dispatched to standard handler");
+		check(msg == handler.last, "message passed on");
+		table.callback(message(0x124, false));
+		checkEquals(1, handler.count, "no handler, no default handler");
+		table.setDefaultHandler(other);
+		table.callback(new CANMessage[] { message(0x123, true),
+				message(0x124, false), message(0x123, false), null }, 3);
+		checkEquals(1, extended.count, "dispatched to extended handler");
+		checkEquals(1, other.count, "dispatched to default handler");
+		checkEquals(2, handler.count, "batch dispatched");
+	}
+
+	private static void invalid()
+	{
+		IdDispatchTable table = new IdDispatchTable();
+		try
+		{
+			table.register(0x800, new CountingHandler());
+			check(false, "standard ID with 12 bits rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		try
+		{
+			table.registerExtended(0x20000000, new CountingHandler());
+			check(false, "extended ID with 30 bits rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		try
+		{
+			table.register(0x200, 0x100, new CountingHandler());
+			check(false, "reversed range rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	private static int extendedId(int i)
+	{
+		// spread over the ID space, but keep neighbours for collisions
+		return (i * 0x9E37 + (i & 3)) & 0x1FFFFFFF;
+	}
+
+	private static CANMessage message(int id, boolean isExtendedFrameFormat)
+	{
+		return new CompactMessage(id, false, isExtendedFrameFormat, (byte) 0,
+				null, 0, 0);
+	}
+}
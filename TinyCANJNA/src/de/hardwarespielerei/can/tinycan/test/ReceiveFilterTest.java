@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan.test;
+
+import static de.hardwarespielerei.can.tinycan.test.Checks.check;
+
+import de.hardwarespielerei.can.tinycan.CANMessage;
+import de.hardwarespielerei.can.tinycan.CompactMessage;
+import de.hardwarespielerei.can.tinycan.ReceiveFilter;
+
+/**
+ * Checks the IDs and payloads accepted by {@link ReceiveFilter}s without an
+ * adapter.
+ * 
+ * @author gabriel
+ */
+public class ReceiveFilterTest
+{
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            command line arguments, not used.
+	 */
+	public static void main(String[] args)
+	{
+		standard();
+		extended();
+		payload();
+		invalid();
+		Checks.report("ReceiveFilterTest");
+	}
+
+	private static void standard()
+	{
+		ReceiveFilter filter = new ReceiveFilter.Builder()
+				.acceptIds(false, 0x100, 0x7DF).acceptRange(false, 0x200, 0x2FF)
+				.acceptMaskCode(false, 0x70F, 0x301).build();
+		check(filter.accepts(0x100, false), "listed ID");
+		check(filter.accepts(0x7DF, false), "last listed ID");
+		check(!filter.accepts(0x101, false), "unlisted ID");
+		check(filter.accepts(0x200, false), "range start");
+		check(filter.accepts(0x2FF, false), "range end");
+		check(!filter.accepts(0x1FF, false), "before range");
+		check(filter.accepts(0x3F1, false), "mask/code match");
+		check(!filter.accepts(0x3F2, false), "mask/code mismatch");
+		check(!filter.accepts(0x100, true), "standard ID isn't extended");
+		check(filter.accepts(message(0x250, false, 0)), "message");
+		check(!filter.accepts(message(0x250, true, 0)), "extended message");
+		check(!new ReceiveFilter.Builder().build().accepts(0x100, false),
+				"empty filter");
+	}
+
+	private static void extended()
+	{
+		ReceiveFilter filter = new ReceiveFilter.Builder()
+				.acceptIds(true, 0x100, 0x18DAF110)
+				.acceptRange(true, 0x10000, 0x100FF)
+				.acceptRange(true, 0x1000000, 0x1FFFFFF)
+				.acceptMaskCode(true, 0x1FFFFF00, 0x18FEF000).build();
+		check(filter.accepts(0x18DAF110, true), "listed extended ID");
+		check(filter.accepts(0x100, true), "small listed extended ID");
+		check(!filter.accepts(0x100, false), "extended ID isn't standard");
+		check(!filter.accepts(0x18DAF111, true), "unlisted extended ID");
+		check(filter.accepts(0x10080, true), "small range");
+		check(!filter.accepts(0x10100, true), "beyond small range");
+		check(filter.accepts(0x1000000, true), "large range start");
+		check(filter.accepts(0x1FFFFFF, true), "large range end");
+		check(!filter.accepts(0x2000000, true), "beyond large range");
+		check(filter.accepts(0x18FEF042, true), "extended mask/code match");
+		check(!filter.accepts(0x18FEE042, true),
+				"extended mask/code mismatch");
+
+		// enough IDs to grow the hash set of extended IDs several times
+		ReceiveFilter.Builder builder = new ReceiveFilter.Builder();
+		for (int i = 0; i < 1000; i++)
+		{
+			builder.acceptIds(true, 0x10000000 + i * 0x1001);
+		}
+		ReceiveFilter many = builder.build();
+		boolean all = true;
+		boolean none = true;
+		for (int i = 0; i < 1000; i++)
+		{
+			all &= many.accepts(0x10000000 + i * 0x1001, true);
+			none &= !many.accepts(0x10000001 + i * 0x1001, true);
+		}
+		check(all, "many extended IDs accepted");
+		check(none, "IDs next to them rejected");
+	}
+
+	private static void payload()
+	{
+		ReceiveFilter filter = new ReceiveFilter.Builder()
+				.acceptIds(false, 0x300, 0x301)
+				.acceptPayload(false, 0x300, 0xFFL, 0x02L)
+				.acceptPayload(false, 0x300, 0xFFL, 0x05L)
+				.acceptPayload(true, 0x300, new byte[] { 0, (byte) 0xF0 },
+						new byte[] { 0, 0x10 }).build();
+		check(filter.accepts(0x300, false), "some messages of the ID may pass");
+		check(filter.accepts(message(0x300, false, 0x1102L)),
+				"first payload rule");
+		check(filter.accepts(message(0x300, false, 0x05L)),
+				"second payload rule");
+		check(!filter.accepts(message(0x300, false, 0x03L)),
+				"payload rules override the listed ID");
+		check(filter.accepts(message(0x301, false, 0x03L)),
+				"other ID without payload rules");
+		check(filter.accepts(message(0x300, true, 0x1A00L)),
+				"byte array payload rule");
+		check(!filter.accepts(message(0x300, true, 0x2A00L)),
+				"byte array payload rule mismatch");
+		check(!filter.accepts(message(0x301, true, 0x1A00L)),
+				"extended ID without rules");
+
+		// data bytes beyond the frame size count as 0
+		ReceiveFilter zero = new ReceiveFilter.Builder().acceptPayload(false,
+				0x400, 0xFF00L, 0L).build();
+		check(zero.accepts(new CompactMessage(CompactMessage.header(0x400, 1),
+				0xFF01L, 0)), "byte beyond the frame size ignored");
+		check(!zero.accepts(new CompactMessage(
+				CompactMessage.header(0x400, 2), 0xFF01L, 0)),
+				"byte within the frame size compared");
+	}
+
+	private static void invalid()
+	{
+		try
+		{
+			new ReceiveFilter.Builder().acceptIds(false, 0x800);
+			check(false, "standard ID with 12 bits rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		try
+		{
+			new ReceiveFilter.Builder().acceptIds(true, 0x20000000);
+			check(false, "extended ID with 30 bits rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		try
+		{
+			new ReceiveFilter.Builder().acceptRange(false, 0x200, 0x100);
+			check(false, "reversed range rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		try
+		{
+			new ReceiveFilter.Builder().acceptPayload(false, 0x100,
+					new byte[9], new byte[9]);
+			check(false, "payload of 9 bytes rejected");
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	private static CANMessage message(int id, boolean isExtendedFrameFormat,
+			long payload)
+	{
+		byte[] data = new byte[8];
+		for (int i = 0; i < data.length; i++)
+		{
+			data[i] = (byte) (payload >>> (8 * i));
+		}
+		return new CompactMessage(id, false, isExtendedFrameFormat, (byte) 8,
+				data, 0, 0);
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan.test;
+
+import static de.hardwarespielerei.can.tinycan.test.Checks.check;
+import static de.hardwarespielerei.can.tinycan.test.Checks.checkEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import de.hardwarespielerei.can.tinycan.CompactMessage;
+import de.hardwarespielerei.can.tinycan.FIFOWriteException;
+import de.hardwarespielerei.can.tinycan.HardwareConnectionException;
+import de.hardwarespielerei.can.tinycan.PeriodicTransmission;
+import de.hardwarespielerei.can.tinycan.TimingWheelTransmitScheduler;
+import de.hardwarespielerei.can.tinycan.TinyCANException;
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Checks the rates, payload updates, cancelling and error handling of a
+ * {@link TimingWheelTransmitScheduler} without an adapter; the frames are
+ * recorded instead of written to a channel. The checks depend on timing and
+ * allow for a loaded machine.
+ * 
+ * @author gabriel
+ */
+public class TimingWheelTransmitSchedulerTest
+{
+	private static class RecordingScheduler extends
+			TimingWheelTransmitScheduler
+	{
+		private final long[] counts = new long[8];
+		private final long[] payloads = new long[8];
+		private volatile TinyCANException error = null;
+
+		private RecordingScheduler(int wheelSize)
+		{
+			super(null, 1, TimeUnit.MILLISECONDS, wheelSize);
+		}
+
+		@Override
+		protected int write(long[] headers, long[] payloads, int len)
+				throws TinyCANException
+		{
+			TinyCANException e = this.error;
+			if (null != e)
+			{
+				throw e;
+			}
+			synchronized (this.counts)
+			{
+				for (int i = 0; i < len; i++)
+				{
+					int id = (int) (headers[i] >>> 32);
+					this.counts[id]++;
+					this.payloads[id] = payloads[i];
+				}
+			}
+			return len;
+		}
+
+		private long countOf(int id)
+		{
+			synchronized (this.counts)
+			{
+				return this.counts[id];
+			}
+		}
+
+		private long payloadOf(int id)
+		{
+			synchronized (this.counts)
+			{
+				return this.payloads[id];
+			}
+		}
+	}
+
+	private static class FullException extends FIFOWriteException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private FullException()
+		{
+			super(NativeAccess.ERROR_FIFO_WRITE, "Transmit FIFO full!");
+		}
+	}
+
+	private static class LostException extends HardwareConnectionException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private LostException()
+		{
+			super(NativeAccess.ERROR_HARDWARE_CONNECTION, "Adapter lost!");
+		}
+	}
+
+	/**
+	 * Runs the checks.
+	 * 
+	 * @param args
+	 *            command line arguments, not used.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		rates();
+		payloadAndCancel();
+		transientErrors();
+		failure();
+		Checks.report("TimingWheelTransmitSchedulerTest");
+	}
+
+	private static void rates() throws InterruptedException
+	{
+		// periods beyond a turn of the 16 ticks wheel take several rounds
+		RecordingScheduler scheduler = new RecordingScheduler(16);
+		long start = System.nanoTime();
+		PeriodicTransmission fast = scheduler.schedule(message(1, 0), 10,
+				TimeUnit.MILLISECONDS);
+		scheduler.schedule(message(2, 0), 5, 25, TimeUnit.MILLISECONDS);
+		scheduler.schedule(message(3, 0), 100, TimeUnit.MILLISECONDS);
+		checkEquals(3, scheduler.size(), "scheduled messages");
+		Thread.sleep(1000);
+		long[] counts = { scheduler.countOf(1), scheduler.countOf(2),
+				scheduler.countOf(3) };
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- start);
+		checkRate(counts[0], elapsed, 10, 0, "10 ms period");
+		checkRate(counts[1], elapsed, 25, 5, "25 ms period");
+		checkRate(counts[2], elapsed, 100, 0, "100 ms period");
+		check(fast.getSendCount() >= counts[0] - 1,
+				"transmissions counted per message");
+		checkEquals(0, fast.getMissCount(), "no transmission missed");
+		check(fast.getMaxJitter(TimeUnit.NANOSECONDS) >= fast
+				.getMinJitter(TimeUnit.NANOSECONDS), "jitter statistics");
+		scheduler.close();
+		checkEquals(0, scheduler.size(), "no messages after close");
+		check(fast.isCancelled(), "messages cancelled by close");
+		try
+		{
+			scheduler.schedule(message(1, 0), 10, TimeUnit.MILLISECONDS);
+			check(false, "closed scheduler rejects messages");
+		} catch (IllegalStateException e)
+		{
+			// expected
+		}
+	}
+
+	private static void payloadAndCancel() throws InterruptedException
+	{
+		RecordingScheduler scheduler = new RecordingScheduler(512);
+		PeriodicTransmission transmission = scheduler.schedule(
+				message(4, 0x11L), 5, TimeUnit.MILLISECONDS);
+		Thread.sleep(100);
+		checkEquals(0x11L, scheduler.payloadOf(4), "initial payload");
+		transmission.setData(new byte[] { 0x22, 0x33 });
+		Thread.sleep(100);
+		checkEquals(0x3322L, scheduler.payloadOf(4), "updated payload");
+		transmission.cancel();
+		check(transmission.isCancelled(), "cancelled");
+		checkEquals(0, scheduler.size(), "no messages after cancel");
+		long count = scheduler.countOf(4);
+		Thread.sleep(100);
+		check(scheduler.countOf(4) <= count + 1,
+				"no transmissions after cancel");
+		scheduler.close();
+	}
+
+	private static void transientErrors() throws InterruptedException
+	{
+		RecordingScheduler scheduler = new RecordingScheduler(512);
+		PeriodicTransmission transmission = scheduler.schedule(
+				message(5, 0), 5, TimeUnit.MILLISECONDS);
+		scheduler.error = new FullException();
+		Thread.sleep(100);
+		scheduler.error = null;
+		Thread.sleep(100);
+		check(0 < scheduler.getErrorCount(), "full FIFO counted");
+		check(0 < transmission.getMissCount(), "transmissions missed");
+		check(null == scheduler.getFailure(), "full FIFO isn't a failure");
+		check(!transmission.isCancelled(), "still scheduled");
+		check(0 < scheduler.countOf(5), "sent again after full FIFO");
+		scheduler.close();
+	}
+
+	private static void failure() throws InterruptedException
+	{
+		RecordingScheduler scheduler = new RecordingScheduler(512);
+		PeriodicTransmission transmission = scheduler.schedule(
+				message(6, 0), 5, TimeUnit.MILLISECONDS);
+		TinyCANException lost = new LostException();
+		scheduler.error = lost;
+		Thread.sleep(100);
+		check(lost == scheduler.getFailure(), "failure kept");
+		check(transmission.isCancelled(), "messages cancelled by failure");
+		checkEquals(0, scheduler.size(), "no messages after failure");
+		try
+		{
+			scheduler.schedule(message(6, 0), 10, TimeUnit.MILLISECONDS);
+			check(false, "failed scheduler rejects messages");
+		} catch (IllegalStateException e)
+		{
+			check(lost == e.getCause(), "failure reported as cause");
+		}
+		scheduler.close();
+	}
+
+	private static void checkRate(long count, long elapsedMillis,
+			long periodMillis, long delayMillis, String what)
+	{
+		long expected = (elapsedMillis - delayMillis) / periodMillis + 1;
+		check(count >= expected * 8 / 10 && count <= expected + 1, what
+				+ " - expected about " + expected + " but was " + count);
+	}
+
+	private static CompactMessage message(int id, long payload)
+	{
+		return new CompactMessage(CompactMessage.header(id, 8), payload, 0);
+	}
+}
@@ -0,0 +1,814 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2015 Gabriel Schmidt
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.hardwarespielerei.can.tinycan.util;
+
+import java.text.ParseException;
+
+import de.hardwarespielerei.can.tinycan.FramePredicate;
+import de.hardwarespielerei.can.tinycan.jna.NativeAccess;
+
+/**
+ * Compiles filter expressions like
+ * 
+ * <pre>
+ * id in 0x100..0x1FF &amp;&amp; data[0] &amp; 0x80 &amp;&amp; len == 8
+ * </pre>
+ * 
+ * into a {@link FramePredicate}, which evaluates the raw ID, flags and data
+ * bytes of a frame. An expression is parsed once into a tree of nodes working
+ * on primitive values; constant subexpressions are folded and comparisons with
+ * constants and constant ranges get nodes of their own.
+ * 
+ * The language knows these fields of a frame:
+ * <ul>
+ * <li><code>id</code> - the message ID</li>
+ * <li><code>len</code> or <code>dlc</code> - the frame size</li>
+ * <li><code>ext</code> - 1 for extended frames, 0 otherwise</li>
+ * <li><code>rtr</code> - 1 for remote transmition requests, 0 otherwise</li>
+ * <li><code>txd</code> - 1 for transmitted frames, 0 otherwise</li>
+ * <li><code>source</code> - the source of the frame</li>
+ * <li><code>data[i]</code> - data byte i, 0 to 7, as unsigned value</li>
+ * <li><code>payload</code> - all data bytes, data byte i in bits 8 * i to 8 *
+ * i + 7</li>
+ * </ul>
+ * Numbers are decimal, hexadecimal (<code>0x</code>) or binary (
+ * <code>0b</code>). Operators are, from lowest to highest precedence:
+ * <code>||</code>, <code>&amp;&amp;</code>, <code>!</code>, comparisons (
+ * <code>== != &lt; &lt;= &gt; &gt;=</code> and <code>in a..b</code>),
+ * <code>|</code>, <code>^</code>, <code>&amp;</code>,
+ * <code>&lt;&lt; &gt;&gt;</code>, <code>+ -</code>, <code>* / %</code> and
+ * the unary <code>- ~</code>. Unlike in Java, bit operators bind stronger
+ * than comparisons, so <code>data[0] &amp; 0x0F == 2</code> compares the
+ * masked value. A value is true if it isn't 0, division by 0 results in 0.
+ * 
+ * @author gabriel
+ */
+public class FilterExpression
+{
+	/**
+	 * Node of a compiled expression.
+	 */
+	private static abstract class Node
+	{
+		abstract long eval(int id, int flags, long payload);
+
+		boolean test(int id, int flags, long payload)
+		{
+			return 0 != this.eval(id, flags, payload);
+		}
+
+		boolean isConstant()
+		{
+			return false;
+		}
+
+		boolean hasConstantOperands()
+		{
+			return false;
+		}
+	}
+
+	private static abstract class Condition extends Node
+	{
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return (this.test(id, flags, payload) ? 1 : 0);
+		}
+
+		@Override
+		abstract boolean test(int id, int flags, long payload);
+	}
+
+	private static class Constant extends Node
+	{
+		private final long value;
+
+		private Constant(long value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return this.value;
+		}
+
+		@Override
+		boolean isConstant()
+		{
+			return true;
+		}
+	}
+
+	private static class Id extends Node
+	{
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return id & 0xFFFFFFFFL;
+		}
+	}
+
+	private static class Flags extends Node
+	{
+		private final int mask;
+		private final int shift;
+
+		private Flags(int mask, int shift)
+		{
+			this.mask = mask;
+			this.shift = shift;
+		}
+
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return (flags & this.mask) >>> this.shift;
+		}
+	}
+
+	private static class Data extends Node
+	{
+		private final int shift;
+
+		private Data(int i)
+		{
+			this.shift = i << 3;
+		}
+
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return (payload >>> this.shift) & 0xFF;
+		}
+	}
+
+	private static class Payload extends Node
+	{
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return payload;
+		}
+	}
+
+	private static class Not extends Condition
+	{
+		private final Node operand;
+
+		private Not(Node operand)
+		{
+			this.operand = operand;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			return !this.operand.test(id, flags, payload);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.operand.isConstant();
+		}
+	}
+
+	private static class And extends Condition
+	{
+		private final Node left;
+		private final Node right;
+
+		private And(Node left, Node right)
+		{
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			return this.left.test(id, flags, payload)
+					&& this.right.test(id, flags, payload);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.left.isConstant()
+					&& this.right.isConstant();
+		}
+	}
+
+	private static class Or extends Condition
+	{
+		private final Node left;
+		private final Node right;
+
+		private Or(Node left, Node right)
+		{
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			return this.left.test(id, flags, payload)
+					|| this.right.test(id, flags, payload);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.left.isConstant()
+					&& this.right.isConstant();
+		}
+	}
+
+	/**
+	 * Range check against constant bounds with a single unsigned compare.
+	 */
+	private static class InConstantRange extends Condition
+	{
+		private final Node operand;
+		private final long from;
+		private final long width;
+
+		private InConstantRange(Node operand, long from, long to)
+		{
+			this.operand = operand;
+			this.from = from;
+			this.width = to - from;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			return this.width >= 0
+					&& Long.compare(this.operand.eval(id, flags, payload)
+							- this.from + Long.MIN_VALUE, this.width
+							+ Long.MIN_VALUE) <= 0;
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.operand.isConstant();
+		}
+	}
+
+	private static class InRange extends Condition
+	{
+		private final Node operand;
+		private final Node from;
+		private final Node to;
+
+		private InRange(Node operand, Node from, Node to)
+		{
+			this.operand = operand;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			long value = this.operand.eval(id, flags, payload);
+			return value >= this.from.eval(id, flags, payload)
+					&& value <= this.to.eval(id, flags, payload);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.operand.isConstant()
+					&& this.from.isConstant()
+					&& this.to.isConstant();
+		}
+	}
+
+	/**
+	 * Comparison of a node with a constant.
+	 */
+	private static class CompareConstant extends Condition
+	{
+		private final Node left;
+		private final Operator operator;
+		private final long right;
+
+		private CompareConstant(Node left, Operator operator, long right)
+		{
+			this.left = left;
+			this.operator = operator;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			return this.operator.compare(this.left.eval(id, flags, payload),
+					this.right);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.left.isConstant();
+		}
+	}
+
+	private static class Compare extends Condition
+	{
+		private final Node left;
+		private final Operator operator;
+		private final Node right;
+
+		private Compare(Node left, Operator operator, Node right)
+		{
+			this.left = left;
+			this.operator = operator;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(int id, int flags, long payload)
+		{
+			return this.operator.compare(this.left.eval(id, flags, payload),
+					this.right.eval(id, flags, payload));
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.left.isConstant()
+					&& this.right.isConstant();
+		}
+	}
+
+	private static class Binary extends Node
+	{
+		private final Node left;
+		private final Operator operator;
+		private final Node right;
+
+		private Binary(Node left, Operator operator, Node right)
+		{
+			this.left = left;
+			this.operator = operator;
+			this.right = right;
+		}
+
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return this.operator.apply(this.left.eval(id, flags, payload),
+					this.right.eval(id, flags, payload));
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.left.isConstant()
+					&& this.right.isConstant();
+		}
+	}
+
+	private static class Negate extends Node
+	{
+		private final Node operand;
+
+		private Negate(Node operand)
+		{
+			this.operand = operand;
+		}
+
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return -this.operand.eval(id, flags, payload);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.operand.isConstant();
+		}
+	}
+
+	private static class Complement extends Node
+	{
+		private final Node operand;
+
+		private Complement(Node operand)
+		{
+			this.operand = operand;
+		}
+
+		@Override
+		long eval(int id, int flags, long payload)
+		{
+			return ~this.operand.eval(id, flags, payload);
+		}
+
+		@Override
+		boolean hasConstantOperands()
+		{
+			return this.operand.isConstant();
+		}
+	}
+
+	private enum Operator
+	{
+		Equal("=="), NotEqual("!="), Less("<"), LessOrEqual("<="), Greater(
+				">"), GreaterOrEqual(">="), BitOr("|"), BitXor("^"), BitAnd(
+				"&"), ShiftLeft("<<"), ShiftRight(">>"), Add("+"), Subtract(
+				"-"), Multiply("*"), Divide("/"), Remainder("%");
+
+		private final String symbol;
+
+		private Operator(String symbol)
+		{
+			this.symbol = symbol;
+		}
+
+		private boolean compare(long left, long right)
+		{
+			switch (this)
+			{
+				case Equal:
+					return left == right;
+				case NotEqual:
+					return left != right;
+				case Less:
+					return left < right;
+				case LessOrEqual:
+					return left <= right;
+				case Greater:
+					return left > right;
+				case GreaterOrEqual:
+					return left >= right;
+				default:
+					throw new IllegalStateException(this + " doesn't compare!");
+			}
+		}
+
+		private long apply(long left, long right)
+		{
+			switch (this)
+			{
+				case BitOr:
+					return left | right;
+				case BitXor:
+					return left ^ right;
+				case BitAnd:
+					return left & right;
+				case ShiftLeft:
+					return left << right;
+				case ShiftRight:
+					return left >>> right;
+				case Add:
+					return left + right;
+				case Subtract:
+					return left - right;
+				case Multiply:
+					return left * right;
+				case Divide:
+					return (0 == right ? 0 : left / right);
+				case Remainder:
+					return (0 == right ? 0 : left % right);
+				default:
+					return (this.compare(left, right) ? 1 : 0);
+			}
+		}
+	}
+
+	private static final Operator[] COMPARISONS = { Operator.Equal,
+			Operator.NotEqual, Operator.LessOrEqual, Operator.Less,
+			Operator.GreaterOrEqual, Operator.Greater };
+	private static final Operator[][] ARITHMETICS = {
+			{ Operator.BitOr },
+			{ Operator.BitXor },
+			{ Operator.BitAnd },
+			{ Operator.ShiftLeft, Operator.ShiftRight },
+			{ Operator.Add, Operator.Subtract },
+			{ Operator.Multiply, Operator.Divide, Operator.Remainder } };
+
+	private final String source;
+	private int pos;
+
+	private FilterExpression(String source)
+	{
+		this.source = source;
+		this.pos = 0;
+	}
+
+	/**
+	 * Compiles a filter expression.
+	 * 
+	 * @param expression
+	 *            contains the expression.
+	 * @return the predicate evaluating the expression.
+	 * @throws ParseException
+	 *             if the expression is invalid, the error offset tells where.
+	 */
+	public static FramePredicate compile(final String expression)
+			throws ParseException
+	{
+		FilterExpression parser = new FilterExpression(expression);
+		final Node root = parser.parseOr();
+		parser.skipWhitespace();
+		if (parser.pos < expression.length())
+		{
+			throw parser.error("Unexpected \""
+					+ expression.substring(parser.pos) + "\"");
+		}
+		return new FramePredicate()
+		{
+			@Override
+			public boolean test(int id, int flags, long payload)
+			{
+				return root.test(id, flags, payload);
+			}
+
+			@Override
+			public String toString()
+			{
+				return expression;
+			}
+		};
+	}
+
+	private Node parseOr() throws ParseException
+	{
+		Node node = this.parseAnd();
+		while (this.accept("||"))
+		{
+			node = fold(new Or(node, this.parseAnd()));
+		}
+		return node;
+	}
+
+	private Node parseAnd() throws ParseException
+	{
+		Node node = this.parseNot();
+		while (this.accept("&&"))
+		{
+			node = fold(new And(node, this.parseNot()));
+		}
+		return node;
+	}
+
+	private Node parseNot() throws ParseException
+	{
+		if (!this.peek("!=") && this.accept("!"))
+		{
+			return fold(new Not(this.parseNot()));
+		}
+		return this.parseComparison();
+	}
+
+	private Node parseComparison() throws ParseException
+	{
+		Node left = this.parseArithmetic(0);
+		if (this.acceptWord("in"))
+		{
+			Node from = this.parseArithmetic(0);
+			this.expect("..");
+			Node to = this.parseArithmetic(0);
+			if (from.isConstant() && to.isConstant())
+			{
+				return fold(new InConstantRange(left, constant(from),
+						constant(to)));
+			}
+			return fold(new InRange(left, from, to));
+		}
+		for (Operator operator : COMPARISONS)
+		{
+			if (this.accept(operator.symbol))
+			{
+				Node right = this.parseArithmetic(0);
+				if (right.isConstant())
+				{
+					return fold(new CompareConstant(left, operator,
+							constant(right)));
+				}
+				return fold(new Compare(left, operator, right));
+			}
+		}
+		return left;
+	}
+
+	private Node parseArithmetic(int level) throws ParseException
+	{
+		if (level == ARITHMETICS.length)
+		{
+			return this.parseUnary();
+		}
+		Node node = this.parseArithmetic(level + 1);
+		boolean found = true;
+		while (found)
+		{
+			found = false;
+			for (Operator operator : ARITHMETICS[level])
+			{
+				// don't take the first character of && or ||
+				if (!this.peek(operator.symbol + operator.symbol)
+						&& this.accept(operator.symbol))
+				{
+					node = fold(new Binary(node, operator,
+							this.parseArithmetic(level + 1)));
+					found = true;
+					break;
+				}
+			}
+		}
+		return node;
+	}
+
+	private Node parseUnary() throws ParseException
+	{
+		if (this.accept("-"))
+		{
+			return fold(new Negate(this.parseUnary()));
+		} else if (this.accept("~"))
+		{
+			return fold(new Complement(this.parseUnary()));
+		}
+		return this.parsePrimary();
+	}
+
+	private Node parsePrimary() throws ParseException
+	{
+		this.skipWhitespace();
+		if (this.accept("("))
+		{
+			Node node = this.parseOr();
+			this.expect(")");
+			return node;
+		} else if (this.pos < this.source.length()
+				&& Character.isDigit(this.source.charAt(this.pos)))
+		{
+			return this.parseNumber();
+		} else if (this.acceptWord("id"))
+		{
+			return new Id();
+		} else if (this.acceptWord("len") || this.acceptWord("dlc"))
+		{
+			return new Flags(NativeAccess.CAN_MSG_FLAG_LENGTH_MASK, 0);
+		} else if (this.acceptWord("ext"))
+		{
+			return new Flags(NativeAccess.CAN_MSG_FLAG_EFF, 7);
+		} else if (this.acceptWord("rtr"))
+		{
+			return new Flags(NativeAccess.CAN_MSG_FLAG_RTR, 6);
+		} else if (this.acceptWord("txd"))
+		{
+			return new Flags(NativeAccess.CAN_MSG_FLAG_TXD, 4);
+		} else if (this.acceptWord("source"))
+		{
+			return new Flags(0xFF << NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT,
+					NativeAccess.CAN_MSG_FLAG_SOURCE_SHIFT);
+		} else if (this.acceptWord("payload"))
+		{
+			return new Payload();
+		} else if (this.acceptWord("data"))
+		{
+			this.expect("[");
+			int start = this.pos;
+			Node index = this.parseArithmetic(0);
+			if (!index.isConstant() || constant(index) < 0
+					|| constant(index) > 7)
+			{
+				this.pos = start;
+				throw this.error("Data index has to be a constant from 0 to 7");
+			}
+			this.expect("]");
+			return new Data((int) constant(index));
+		}
+		throw this.error("Value expected");
+	}
+
+	private Node parseNumber() throws ParseException
+	{
+		int start = this.pos;
+		int radix = 10;
+		if (this.source.startsWith("0x", this.pos)
+				|| this.source.startsWith("0X", this.pos))
+		{
+			radix = 16;
+			this.pos += 2;
+		} else if (this.source.startsWith("0b", this.pos)
+				|| this.source.startsWith("0B", this.pos))
+		{
+			radix = 2;
+			this.pos += 2;
+		}
+		int digits = this.pos;
+		while (this.pos < this.source.length()
+				&& Character.digit(this.source.charAt(this.pos), radix) >= 0)
+		{
+			this.pos++;
+		}
+		try
+		{
+			return new Constant(Long.parseLong(
+					this.source.substring(digits, this.pos), radix));
+		} catch (NumberFormatException e)
+		{
+			this.pos = start;
+			throw this.error("Invalid number");
+		}
+	}
+
+	/**
+	 * Replaces a node with constant operands by its value.
+	 */
+	private static Node fold(Node node)
+	{
+		return (node.hasConstantOperands() ? new Constant(constant(node))
+				: node);
+	}
+
+	private static long constant(Node node)
+	{
+		return node.eval(0, 0, 0);
+	}
+
+	private void skipWhitespace()
+	{
+		while (this.pos < this.source.length()
+				&& Character.isWhitespace(this.source.charAt(this.pos)))
+		{
+			this.pos++;
+		}
+	}
+
+	private boolean peek(String symbol)
+	{
+		this.skipWhitespace();
+		return this.source.startsWith(symbol, this.pos);
+	}
+
+	private boolean accept(String symbol)
+	{
+		if (this.peek(symbol))
+		{
+			this.pos += symbol.length();
+			return true;
+		}
+		return false;
+	}
+
+	private boolean acceptWord(String word)
+	{
+		if (this.peek(word))
+		{
+			int end = this.pos + word.length();
+			if (end == this.source.length()
+					|| !Character.isLetterOrDigit(this.source.charAt(end)))
+			{
+				this.pos = end;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void expect(String symbol) throws ParseException
+	{
+		if (!this.accept(symbol))
+		{
+			throw this.error("\"" + symbol + "\" expected");
+		}
+	}
+
+	private ParseException error(String message)
+	{
+		return new ParseException(message + " at position " + (this.pos + 1)
+				+ " of \"" + this.source + "\"!", this.pos);
+	}
+}
@@ -24,8 +24,10 @@
 
 package de.hardwarespielerei.can.tinycan.util;
 
+import java.text.ParseException;
 import java.util.Date;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
 import com.sun.jna.Platform;
 
@@ -34,9 +36,11 @@ import de.hardwarespielerei.can.tinycan.AdapterIterator;
 import de.hardwarespielerei.can.tinycan.Bitrate;
 import de.hardwarespielerei.can.tinycan.CANMessage;
 import de.hardwarespielerei.can.tinycan.Channel;
+import de.hardwarespielerei.can.tinycan.FramePredicate;
 import de.hardwarespielerei.can.tinycan.Library;
-import de.hardwarespielerei.can.tinycan.NoMessageException;
+import de.hardwarespielerei.can.tinycan.OverflowPolicy;
 import de.hardwarespielerei.can.tinycan.ReceiveCallback;
+import de.hardwarespielerei.can.tinycan.ReceiveDispatcher;
 import de.hardwarespielerei.can.tinycan.TinyCANException;
 import de.hardwarespielerei.can.tinycan.Version;
 
@@ -80,10 +84,12 @@ public class Logger
 	private static class ShutdownHook extends Thread
 	{
 		private Channel channel;
+		private ReceiveDispatcher dispatcher;
 
-		protected ShutdownHook(Channel channel)
+		protected ShutdownHook(Channel channel, ReceiveDispatcher dispatcher)
 		{
 			this.channel = channel;
+			this.dispatcher = dispatcher;
 		}
 
 		@Override
@@ -97,10 +103,31 @@ public class Logger
 				System.err.println("ERROR: Can't close Tiny-CAN properly!");
 				e.printStackTrace();
 			}
+			closeDispatcher(this.dispatcher);
 			System.out.println("INFO: Tiny-CAN log ends.");
 		}
 	}
 
+	/**
+	 * Logs the messages still queued and stops the dispatcher thread.
+	 * 
+	 * @param dispatcher
+	 *            references the dispatcher, may be null.
+	 */
+	private static void closeDispatcher(ReceiveDispatcher dispatcher)
+	{
+		if (null != dispatcher)
+		{
+			try
+			{
+				dispatcher.close();
+			} catch (InterruptedException e)
+			{
+				System.err.println("WARNING: Messages still queued are lost!");
+			}
+		}
+	}
+
 	/**
 	 * @param args
 	 *            references command line arguments.
@@ -125,6 +152,7 @@ public class Logger
 			Mode mode = Mode.CALLBACK;
 			Bitrate bitrate = Bitrate.Bitrate250kbps;
 			String serialNumber = null;
+			FramePredicate filter = null;
 
 			// parse command line arguments
 			int argPos = 0;
@@ -187,6 +215,20 @@ public class Logger
 						case "-sn":
 							serialNumber = args[argPos++];
 							break;
+						case "-filter":
+							String filterArg = args[argPos++];
+							try
+							{
+								filter = FilterExpression.compile(filterArg);
+							} catch (ParseException e)
+							{
+								// don't log everything instead of the frames asked for
+								// the message tells the position of the error
+								System.err.println("ERROR: Invalid filter - "
+										+ e.getMessage());
+								System.exit(1);
+							}
+							break;
 						default:
 							System.err.println("WARNING: Unkown argument \""
 									+ arg + "\"!");
@@ -237,18 +279,35 @@ public class Logger
 						+ " mode...");
 				// open channel
 				Channel channel = adapterToUse.openChannel(bitrate);
+				ReceiveDispatcher dispatcher = null;
 				try
 				{
+					if (null != filter)
+					{
+						System.out.println("Logging frames matching \""
+								+ filter + "\" only.");
+						channel.setReceivePredicate(filter);
+					}
+					// printing is slow so keep it off the driver's receive
+					// thread; block instead of dropping frames silently, an
+					// overrun of the adapter's FIFO is reported by the
+					// adapter
+					if (mode.equals(Mode.CALLBACK))
+					{
+						dispatcher = new ReceiveDispatcher(
+								new LogReceiveCallback(), 4096,
+								OverflowPolicy.Block);
+					}
 					System.out.println("Press [Control+C] to stop logging...");
-					ShutdownHook shutdownHook = new ShutdownHook(channel);
+					ShutdownHook shutdownHook = new ShutdownHook(channel,
+							dispatcher);
 					Runtime.getRuntime().addShutdownHook(shutdownHook);
 
 					// start logging...
-					if (mode.equals(Mode.CALLBACK))
+					if (null != dispatcher)
 					{
 						// set log receive callback
-						channel.setReceiveCallBack(new LogReceiveCallback());
-
+						channel.setBatchReceiveCallBack(dispatcher);
 					}
 					try
 					{
@@ -280,24 +339,21 @@ public class Logger
 							{
 								try
 								{
-									// try to read a message
-									CANMessage msg = channel.read();
-									System.out.println("["
-											+ new Date(System
-													.currentTimeMillis())
-											+ "][MSGRECEIVE]");
-									System.out.println(msg);
-								} catch (NoMessageException e)
-								{
-									// no more messages waiting, stop loop and
-									// go to sleep...
-									try
-									{
-										Thread.sleep(100);
-									} catch (InterruptedException ie)
+									// wait for a message, the timeout keeps
+									// the status checks going
+									CANMessage msg = channel.read(100,
+											TimeUnit.MILLISECONDS);
+									if (null != msg)
 									{
-										// do nothing
+										System.out.println("["
+												+ new Date(System
+														.currentTimeMillis())
+												+ "][MSGRECEIVE]");
+										System.out.println(msg);
 									}
+								} catch (InterruptedException ie)
+								{
+									// do nothing
 								} catch (TinyCANException e)
 								{
 									System.err.println("["
@@ -330,6 +386,7 @@ public class Logger
 				} finally
 				{
 					channel.close();
+					closeDispatcher(dispatcher);
 				}
 			} finally
 			{